@@ -0,0 +1,175 @@
+import java.util.Random;
+
+import connect4.jmh.Workload;
+
+/**
+ * The operations measured by the JMH benchmarks in connect4.jmh, written here
+ * in the default package where the game's classes can be named:
+ *
+ * <pre>
+ * model.update      Model.update, replaying a game on the board given as param
+ * model.applyUndo   Model.apply through a scripted game, then undo back to empty
+ * model.isGameOver  Model.isGameOver on every stage of a scripted game in turn
+ * board.copy        copying a middle game BitBoard
+ * board.playUndo    BitBoard.play, isLastMoveWin and undo on a middle game
+ * ai.chooseMove     the default search choosing a move, at the stage given as
+ *                   param: early, middle or end
+ * </pre>
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class Workloads {
+	// a scripted 37 move game, replayed through Model over and over
+	private static final String GAME = "2252576253462244111563365343671351441";
+	private static final String EARLY = "4453";
+	private static final String MIDDLE = "23423567221336";
+	private static final String END = "225257625346224411156336534367135";
+
+	private Workloads() {
+	}
+
+	/**
+	 * @see Workload#of(String, String)
+	 */
+	public static Workload create(String name, String param) {
+		switch (name) {
+		case "model.update":
+			return update(Geometry.fromSpec(param));
+		case "model.applyUndo":
+			return applyUndo();
+		case "model.isGameOver":
+			return isGameOver();
+		case "board.copy":
+			return copy();
+		case "board.playUndo":
+			return playUndo();
+		case "ai.chooseMove":
+			return chooseMove(param);
+		default:
+			throw new IllegalArgumentException("Unknown workload " + name);
+		}
+	}
+
+	/**
+	 * Replays a game on a board of @param geometry, starting a new model each time
+	 * the game ends. The scripted game is used on 7x6, and the same random game
+	 * every run on other boards, which are played on a GridBoard.
+	 */
+	private static Workload update(Geometry geometry) {
+		int[] game = geometry.isStandard() ? columns(GAME) : randomGame(geometry);
+		return new Workload() {
+			private Model model = new Model(geometry);
+			private int move;
+
+			@Override
+			public long run() {
+				if (move == game.length) {
+					model = new Model(geometry);
+					move = 0;
+				}
+				return model.update(game[move++]).getRow();
+			}
+		};
+	}
+
+	private static Workload applyUndo() {
+		int[] game = columns(GAME);
+		Model model = new Model();
+		return new Workload() {
+			private int move;
+
+			@Override
+			public long run() {
+				int next = move++ % (2 * game.length);
+				return next < game.length ? model.apply(game[next]).ordinal() : model.undo();
+			}
+		};
+	}
+
+	private static Workload isGameOver() {
+		int[] game = columns(GAME);
+		// one model for every stage of the game, so the call cannot be hoisted
+		Model[] stages = new Model[game.length];
+		for (int i = 0; i < game.length; i++) {
+			stages[i] = new Model();
+			for (int j = 0; j <= i; j++) {
+				stages[i].update(game[j]);
+			}
+		}
+		return new Workload() {
+			private int stage;
+
+			@Override
+			public long run() {
+				stage = stage + 1 == stages.length ? 0 : stage + 1;
+				return stages[stage].isGameOver() ? 1 : 0;
+			}
+		};
+	}
+
+	private static Workload copy() {
+		BitBoard middle = BitBoard.fromMoves(MIDDLE);
+		return () -> new BitBoard(middle).getMoves();
+	}
+
+	private static Workload playUndo() {
+		BitBoard middle = BitBoard.fromMoves(MIDDLE);
+		return new Workload() {
+			private int col;
+
+			@Override
+			public long run() {
+				col = col + 1 == BitBoard.COLUMNS ? 0 : col + 1;
+				if (!middle.canPlay(col)) {
+					return 0;
+				}
+				middle.play(col);
+				long won = middle.isLastMoveWin() ? 1 : 0;
+				middle.undo();
+				return won;
+			}
+		};
+	}
+
+	/**
+	 * The table is cleared before every search, otherwise every search after the
+	 * first would be answered from it, so it is kept small
+	 */
+	private static Workload chooseMove(String stage) {
+		BitBoard board = BitBoard.fromMoves(
+				stage.equals("early") ? EARLY : stage.equals("middle") ? MIDDLE : stage.equals("end") ? END : stage);
+		NegamaxPlayer player = new NegamaxPlayer(12, new TranspositionTable(2));
+		return () -> {
+			player.getTable().clear();
+			return player.chooseMove(board);
+		};
+	}
+
+	/**
+	 * @return a random game played to the end on a board of @param geometry, the
+	 *         same one every time
+	 */
+	private static int[] randomGame(Geometry geometry) {
+		Random random = new Random(geometry.hashCode());
+		Model played = new Model(geometry);
+		int[] game = new int[geometry.getCells()];
+		int length = 0;
+		while (!played.isGameOver()) {
+			int col = random.nextInt(geometry.getColumns());
+			if (played.canPlay(col)) {
+				played.update(col);
+				game[length++] = col;
+			}
+		}
+		return java.util.Arrays.copyOf(game, length);
+	}
+
+	private static int[] columns(String moves) {
+		int[] cols = new int[moves.length()];
+		for (int i = 0; i < cols.length; i++) {
+			cols[i] = moves.charAt(i) - '1';
+		}
+		return cols;
+	}
+}
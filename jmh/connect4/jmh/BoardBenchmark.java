@@ -0,0 +1,63 @@
+package connect4.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The model and board operations searches and the view run most: applying and
+ * undoing moves without notifying observers, checking for the end of the game,
+ * and copying a board
+ *
+ * @author Yosef Jacobson
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class BoardBenchmark {
+	private Workload applyUndo;
+	private Workload isGameOver;
+	private Workload copy;
+	private Workload playUndo;
+
+	@Setup
+	public void setUp() {
+		applyUndo = Workload.of("model.applyUndo", null);
+		isGameOver = Workload.of("model.isGameOver", null);
+		copy = Workload.of("board.copy", null);
+		playUndo = Workload.of("board.playUndo", null);
+	}
+
+	@Benchmark
+	public long applyUndo() {
+		return applyUndo.run();
+	}
+
+	@Benchmark
+	public long isGameOver() {
+		return isGameOver.run();
+	}
+
+	@Benchmark
+	public long copy() {
+		return copy.run();
+	}
+
+	@Benchmark
+	public long playUndo() {
+		return playUndo.run();
+	}
+}
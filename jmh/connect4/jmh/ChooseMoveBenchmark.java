@@ -0,0 +1,45 @@
+package connect4.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The default computer player, a 12 move NegamaxPlayer, choosing a move early
+ * in the game, in the middle and near the end
+ *
+ * @author Yosef Jacobson
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class ChooseMoveBenchmark {
+	@Param({ "early", "middle", "end" })
+	public String stage;
+
+	private Workload chooseMove;
+
+	@Setup
+	public void setUp() {
+		chooseMove = Workload.of("ai.chooseMove", stage);
+	}
+
+	@Benchmark
+	public long chooseMove() {
+		return chooseMove.run();
+	}
+}
@@ -0,0 +1,45 @@
+package connect4.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Model.update on the standard board, which is a BitBoard, and on the larger
+ * boards, which are played on a GridBoard
+ *
+ * @author Yosef Jacobson
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class UpdateBenchmark {
+	@Param({ "7x6:4", "8x7:4", "9x7:4", "9x7:5" })
+	public String board;
+
+	private Workload update;
+
+	@Setup
+	public void setUp() {
+		update = Workload.of("model.update", board);
+	}
+
+	@Benchmark
+	public long update() {
+		return update.run();
+	}
+}
@@ -0,0 +1,38 @@
+package connect4.jmh;
+
+/**
+ * One operation for a benchmark to measure.
+ *
+ * JMH only runs benchmarks declared in a package, and code in a package cannot
+ * name the game's classes in the default package. So the operations are written
+ * in Workloads, next to the game's classes, and the benchmarks call them through
+ * this interface. Each benchmark method calls a single implementation, so the
+ * JIT inlines the call and measures only the operation.
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public interface Workload {
+
+	/**
+	 * Runs the operation once
+	 *
+	 * @return something that depends on its result, for JMH to consume so the
+	 *         work cannot be thrown away
+	 */
+	long run();
+
+	/**
+	 * @param name  the operation, as listed in Workloads
+	 * @param param what to run it on, such as a board or a stage of the game
+	 * @return a new workload, with its own state
+	 */
+	static Workload of(String name, String param) {
+		try {
+			return (Workload) Class.forName("Workloads").getMethod("create", String.class, String.class).invoke(null,
+					name, param);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Cannot create workload " + name, e);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * Counts the bytes allocated by a thread, for the benchmarks and tests that
+ * check a hot path does not allocate.
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class Allocations {
+	private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+	private Allocations() {
+	}
+
+	/**
+	 * @return the bytes allocated so far by the calling thread, or -1 if the JVM
+	 *         does not track them
+	 */
+	public static long allocatedBytes() {
+		return THREADS == null ? -1 : THREADS.getThreadAllocatedBytes(Thread.currentThread().threadId());
+	}
+
+	private static com.sun.management.ThreadMXBean threadBean() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+			if (threads.isThreadAllocatedMemorySupported()) {
+				threads.setThreadAllocatedMemoryEnabled(true);
+				return threads;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,325 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scores large numbers of positions for analysis, such as every position in a
+ * set of archived games, on every core at once.
+ *
+ * Reads one position per line, as a move sequence with columns numbered from 1
+ * ("4453"). Only the first word of a line is read, so files that already have
+ * a score after each sequence can be fed back in, and an empty line is the
+ * starting position. Writes one line per position in the same order:
+ *
+ * <pre>
+ * moves score          when solving exactly
+ * moves score column   when searching to a fixed depth, with the best column
+ * moves invalid        when the sequence is not a legal game in progress
+ * </pre>
+ *
+ * Scores are NegamaxPlayer's, for the player to move; a full board scores 0 and
+ * has "-" for its column.
+ *
+ * Lines are read in chunks, and each chunk is evaluated by a fork-join task
+ * that splits it in halves down to single positions, so idle threads steal
+ * work from busy ones however uneven the positions are. Chunks are written out
+ * in the order they were read as soon as the oldest one is done, and no more
+ * than a few chunks per thread are read ahead of the output, so memory stays
+ * bounded however long the input is. Every thread has its own NegamaxPlayer,
+ * and they all share one TranspositionTable.
+ *
+ * Usage: java BatchEvaluator [depth|solve] [threads] [tableMegabytes] &lt;
+ * positions &gt; results
+ *
+ * Progress is printed to standard error every few seconds.
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class BatchEvaluator implements AutoCloseable {
+	public static final int CHUNK = 256;
+	// chunks read ahead of the output for every thread
+	public static final int CHUNKS_PER_THREAD = 4;
+	public static final long DEFAULT_PROGRESS_MILLIS = 5000;
+	private static final int CELLS = BitBoard.COLUMNS * BitBoard.ROWS;
+
+	private final int depth;
+	private final TranspositionTable table;
+	private final ForkJoinPool pool;
+	private final int window;
+	private final ThreadLocal<NegamaxPlayer> searchers;
+
+	private final LongAdder evaluated = new LongAdder();
+	private final LongAdder nodes = new LongAdder();
+	private final LongAdder invalid = new LongAdder();
+	private long written;
+	private long elapsedNanos;
+
+	private PrintStream log;
+	private long progressNanos = DEFAULT_PROGRESS_MILLIS * 1_000_000L;
+
+	/**
+	 * @param threads how many threads to evaluate on
+	 * @param depth   how many moves ahead to search, or NegamaxPlayer.UNLIMITED to
+	 *                solve every position exactly
+	 * @param table   the table shared by every thread
+	 */
+	public BatchEvaluator(int threads, int depth, TranspositionTable table) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Need at least one thread, got " + threads);
+		}
+		this.depth = depth;
+		this.table = table;
+		pool = new ForkJoinPool(threads);
+		window = threads * CHUNKS_PER_THREAD;
+		searchers = ThreadLocal.withInitial(() -> new NegamaxPlayer(depth, table));
+	}
+
+	/**
+	 * Evaluates every position read from @param in and writes the results to
+	 * @param out in the same order. Blocks until the input runs out and every
+	 * result is written.
+	 *
+	 * @return how many positions were evaluated
+	 * @throws IOException if reading or writing fails, after which the positions
+	 *                     still being evaluated are abandoned
+	 */
+	public long run(BufferedReader in, Writer out) throws IOException {
+		long start = System.nanoTime();
+		long lastReport = start;
+		written = 0;
+		evaluated.reset();
+		invalid.reset();
+		nodes.reset();
+		ArrayDeque<Chunk> pending = new ArrayDeque<>();
+		try {
+			boolean more = true;
+			while (more || !pending.isEmpty()) {
+				while (more && pending.size() < window) {
+					String[] lines = readChunk(in);
+					if (lines.length > 0) {
+						Chunk chunk = new Chunk(lines, new String[lines.length], 0, lines.length);
+						pool.execute(chunk);
+						pending.add(chunk);
+					}
+					more = lines.length == CHUNK;
+				}
+				if (pending.isEmpty()) {
+					break;
+				}
+				Chunk oldest = pending.peek();
+				while (!await(oldest)) {
+					lastReport = report(start);
+				}
+				pending.remove();
+				for (String result : oldest.results) {
+					out.write(result);
+					out.write('\n');
+				}
+				written += oldest.results.length;
+				if (log != null && System.nanoTime() - lastReport >= progressNanos) {
+					lastReport = report(start);
+				}
+			}
+			out.flush();
+		} finally {
+			for (Chunk chunk : pending) {
+				chunk.cancel(false);
+			}
+			elapsedNanos = System.nanoTime() - start;
+		}
+		return written;
+	}
+
+	/**
+	 * Waits up to the progress interval for @param chunk to finish
+	 *
+	 * @return whether it has
+	 */
+	private boolean await(Chunk chunk) {
+		try {
+			chunk.get(log == null ? Long.MAX_VALUE : progressNanos, TimeUnit.NANOSECONDS);
+			return true;
+		} catch (TimeoutException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while evaluating", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Evaluation failed", e.getCause());
+		}
+	}
+
+	/**
+	 * @return up to CHUNK lines from @param in, fewer only at the end of the input
+	 */
+	private static String[] readChunk(BufferedReader in) throws IOException {
+		String[] lines = new String[CHUNK];
+		int count = 0;
+		String line;
+		while (count < CHUNK && (line = in.readLine()) != null) {
+			lines[count++] = line;
+		}
+		return count == CHUNK ? lines : Arrays.copyOf(lines, count);
+	}
+
+	/**
+	 * Prints how far the run has got to the progress log, if there is one
+	 *
+	 * @return the time of the report
+	 */
+	private long report(long start) {
+		long now = System.nanoTime();
+		if (log != null) {
+			double seconds = Math.max(1, now - start) / 1e9;
+			log.printf("%d evaluated, %d written, %.0f positions/sec, %.0f nodes/sec, %d s%n", evaluated.sum(), written,
+					evaluated.sum() / seconds, nodes.sum() / seconds, (now - start) / 1_000_000_000);
+		}
+		return now;
+	}
+
+	/**
+	 * Evaluates the position reached by @param line on the calling thread
+	 *
+	 * @return the output line for it
+	 */
+	String evaluate(String line) {
+		String trimmed = line.trim();
+		int end = 0;
+		while (end < trimmed.length() && !Character.isWhitespace(trimmed.charAt(end))) {
+			end++;
+		}
+		String moves = trimmed.substring(0, end);
+		BitBoard board;
+		try {
+			board = BitBoard.fromMoves(moves);
+		} catch (IllegalArgumentException e) {
+			invalid.increment();
+			return moves + " invalid";
+		}
+		evaluated.increment();
+		boolean solve = depth == NegamaxPlayer.UNLIMITED;
+		if (board.getMoves() == CELLS) {
+			return solve ? moves + " 0" : moves + " 0 -";
+		}
+		NegamaxPlayer searcher = searchers.get();
+		String result;
+		if (solve) {
+			result = moves + " " + searcher.solve(board);
+		} else {
+			int col = searcher.chooseMove(board, depth);
+			result = moves + " " + searcher.getScore() + " " + (col + 1);
+		}
+		nodes.add(searcher.getNodeCount());
+		return result;
+	}
+
+	/**
+	 * The positions of one chunk, or of a range within it after splitting
+	 */
+	private class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final String[] lines;
+		private final String[] results;
+		private final int from;
+		private final int to;
+
+		Chunk(String[] lines, String[] results, int from, int to) {
+			this.lines = lines;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				results[from] = evaluate(lines[from]);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new Chunk(lines, results, from, middle), new Chunk(lines, results, middle, to));
+		}
+	}
+
+	/**
+	 * Prints progress to @param log every @param intervalMillis while running, or
+	 * nothing if log is null
+	 */
+	public void setProgress(PrintStream log, long intervalMillis) {
+		this.log = log;
+		progressNanos = Math.max(1, intervalMillis) * 1_000_000L;
+	}
+
+	/**
+	 * @return how many positions the last run wrote out
+	 */
+	public long getWritten() {
+		return written;
+	}
+
+	/**
+	 * @return how many lines of the last run were not legal positions
+	 */
+	public long getInvalid() {
+		return invalid.sum();
+	}
+
+	/**
+	 * @return the positions searched over the last run
+	 */
+	public long getNodeCount() {
+		return nodes.sum();
+	}
+
+	/**
+	 * @return how long the last run took, in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return the table shared by every thread
+	 */
+	public TranspositionTable getTable() {
+		return table;
+	}
+
+	/**
+	 * Stops the evaluation threads
+	 */
+	@Override
+	public void close() {
+		pool.shutdownNow();
+	}
+
+	public static void main(String[] args) throws IOException {
+		int depth = args.length > 0 && !args[0].equals("solve") ? Integer.parseInt(args[0]) : NegamaxPlayer.UNLIMITED;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int megabytes = args.length > 2 ? Integer.parseInt(args[2]) : TranspositionTable.DEFAULT_MEGABYTES;
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+		try (BatchEvaluator evaluator = new BatchEvaluator(threads, depth, new TranspositionTable(megabytes))) {
+			evaluator.setProgress(System.err, DEFAULT_PROGRESS_MILLIS);
+			long positions = evaluator.run(in, out);
+			double seconds = Math.max(1, evaluator.getElapsedNanos()) / 1e9;
+			System.err.printf("%d positions (%d invalid) in %.1f s on %d threads: %.0f positions/sec, %.0f nodes/sec%n",
+					positions, evaluator.getInvalid(), seconds, threads, positions / seconds,
+					evaluator.getNodeCount() / seconds);
+		}
+	}
+}
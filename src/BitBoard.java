@@ -0,0 +1,423 @@
+/**
+ * Bitboard representation of a connect 4 board.
+ *
+ * Each player's discs are stored in a single 64-bit mask. Every column takes
+ * ROWS + 1 bits, starting from the bottom row, and the extra bit on top of each
+ * column is always left empty so that shifted lines can never wrap from one
+ * column into the next. A separate height array tracks how many discs are in
+ * each column, so dropping and undoing a disc are both constant time, and wins
+ * are found with a handful of shift-and-mask tests instead of scanning cells.
+ *
+ * Colors follow Connect4MoveMessage: 1 (yellow) always moves first and 2 (red)
+ * second.
+ *
+ * The layout is fixed at 7x6 with four in a row winning, so every shift and
+ * mask is a constant. Other geometries are played on a GridBoard.
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class BitBoard implements Board {
+	public static final int COLUMNS = 7;
+	public static final int ROWS = 6;
+
+	// distance between two vertically adjacent cells in the same column
+	private static final int VERTICAL = 1;
+	// distance between two horizontally adjacent cells in the same row
+	private static final int HORIZONTAL = ROWS + 1;
+	// distances between two cells on the same diagonal
+	private static final int DIAGONAL_UP = ROWS + 2;
+	private static final int DIAGONAL_DOWN = ROWS;
+
+	// one bit at the bottom of every column, and every playable cell
+	private static final long BOTTOM_MASK = bottomMask();
+	private static final long BOARD_MASK = BOTTOM_MASK * ((1L << ROWS) - 1);
+
+	private final long[] discs;
+	// discs as they would be with the board reflected left to right, kept up to
+	// date on every move so the mirror key costs no more than the key
+	private final long[] mirrored;
+	private final int[] heights;
+	private final int[] history;
+	private int moves;
+
+	/**
+	 * Creates an empty board
+	 */
+	public BitBoard() {
+		discs = new long[2];
+		mirrored = new long[2];
+		heights = new int[COLUMNS];
+		history = new int[COLUMNS * ROWS];
+		moves = 0;
+	}
+
+	/**
+	 * Creates a copy of @param other that can be played on without affecting it
+	 */
+	public BitBoard(BitBoard other) {
+		discs = other.discs.clone();
+		mirrored = other.mirrored.clone();
+		heights = other.heights.clone();
+		history = other.history.clone();
+		moves = other.moves;
+	}
+
+	/**
+	 * @return Geometry.STANDARD, the only geometry a BitBoard plays
+	 */
+	@Override
+	public Geometry getGeometry() {
+		return Geometry.STANDARD;
+	}
+
+	/**
+	 * @param col a column on the board
+	 * @return whether a disc can still be dropped in the column
+	 */
+	public boolean canPlay(int col) {
+		return heights[col] < ROWS;
+	}
+
+	/**
+	 * Drops a disc of the player to move into @param col. The column must not be
+	 * full.
+	 *
+	 * @return the row the disc landed in, with row 0 being the bottom row
+	 */
+	public int play(int col) {
+		int row = heights[col]++;
+		discs[moves & 1] |= cellBit(row, col);
+		mirrored[moves & 1] |= cellBit(row, COLUMNS - 1 - col);
+		history[moves++] = col;
+		return row;
+	}
+
+	/**
+	 * Removes the last disc that was played. There must be at least one move to
+	 * undo.
+	 *
+	 * @return the column the disc was removed from
+	 */
+	public int undo() {
+		int col = history[--moves];
+		int row = --heights[col];
+		discs[moves & 1] &= ~cellBit(row, col);
+		mirrored[moves & 1] &= ~cellBit(row, COLUMNS - 1 - col);
+		return col;
+	}
+
+	/**
+	 * @param color 1 or 2
+	 * @return whether the player with @param color has four in a row anywhere
+	 */
+	public boolean isWin(int color) {
+		long mask = discs[color - 1];
+		return hasFour(mask, VERTICAL) || hasFour(mask, HORIZONTAL) || hasFour(mask, DIAGONAL_UP)
+				|| hasFour(mask, DIAGONAL_DOWN);
+	}
+
+	/**
+	 * Checks only the four lines running through the last disc that was played,
+	 * which is all that can have changed since the previous move. There must be
+	 * at least one move on the board.
+	 *
+	 * @return whether the last disc played completed four in a row
+	 */
+	public boolean isLastMoveWin() {
+		int col = history[moves - 1];
+		long bit = cellBit(heights[col] - 1, col);
+		long mask = discs[(moves - 1) & 1];
+		return lineLength(mask, bit, VERTICAL) >= 4 || lineLength(mask, bit, HORIZONTAL) >= 4
+				|| lineLength(mask, bit, DIAGONAL_UP) >= 4 || lineLength(mask, bit, DIAGONAL_DOWN) >= 4;
+	}
+
+	/**
+	 * Counts the discs in @param mask that are connected to @param bit along one
+	 * direction, walking both ways from it
+	 */
+	private static int lineLength(long mask, long bit, int step) {
+		int length = 1;
+		for (long next = bit << step; (mask & next) != 0; next <<= step) {
+			length++;
+		}
+		for (long next = bit >>> step; (mask & next) != 0; next >>>= step) {
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * A line of four exists in @param mask along a direction if shifting the mask
+	 * by one and two steps in that direction still leaves a bit set
+	 */
+	private static boolean hasFour(long mask, int step) {
+		long pairs = mask & (mask >>> step);
+		return (pairs & (pairs >>> (2 * step))) != 0;
+	}
+
+	/**
+	 * Builds a board by playing a sequence of moves from the empty board. Each
+	 * character is a column numbered from 1, so "4453" starts with two discs in
+	 * the center column.
+	 *
+	 * @param moves the move sequence
+	 * @return the resulting board
+	 * @throws IllegalArgumentException if a move is not a column, is played in a
+	 *                                  full column, or would end the game
+	 */
+	public static BitBoard fromMoves(String moves) {
+		BitBoard board = new BitBoard();
+		for (int i = 0; i < moves.length(); i++) {
+			int col = moves.charAt(i) - '1';
+			if (col < 0 || col >= COLUMNS || !board.canPlay(col) || board.isWinningMove(col)) {
+				throw new IllegalArgumentException("Invalid move " + (i + 1) + " in " + moves);
+			}
+			board.play(col);
+		}
+		return board;
+	}
+
+	/**
+	 * @param col a playable column
+	 * @return whether dropping a disc in the column wins the game for the player to
+	 *         move
+	 */
+	public boolean isWinningMove(int col) {
+		return (winningPositions(discs[moves & 1], discs[0] | discs[1]) & possibleMask() & columnMask(col)) != 0;
+	}
+
+	/**
+	 * @return whether the player to move can win with their next disc
+	 */
+	public boolean canWinNext() {
+		return (winningPositions(discs[moves & 1], discs[0] | discs[1]) & possibleMask()) != 0;
+	}
+
+	/**
+	 * Counts the threats the player to move would have after a move: empty cells,
+	 * playable or not, that would then complete four in a row for them. Moves that
+	 * make more threats are usually better, so the search tries them first.
+	 *
+	 * @param move a mask with the single cell the disc would land in
+	 * @return how many cells the player to move could then win with
+	 */
+	public int countThreats(long move) {
+		long mask = discs[0] | discs[1] | move;
+		return Long.bitCount(winningPositions(discs[moves & 1] | move, mask));
+	}
+
+	/**
+	 * @return a mask with the cell a disc would land in for every playable column
+	 */
+	public long possibleMask() {
+		return ((discs[0] | discs[1]) + BOTTOM_MASK) & BOARD_MASK;
+	}
+
+	/**
+	 * Finds the moves that do not hand the opponent an immediate win. If the
+	 * opponent threatens to win in one column, only that column is returned, and if
+	 * they threaten two at once there is nothing left to play. This assumes the
+	 * player to move cannot win immediately.
+	 *
+	 * @return a mask of the landing cells of every move that does not lose next
+	 *         turn
+	 */
+	public long nonLosingMoves() {
+		long possible = possibleMask();
+		long opponentWins = winningPositions(discs[(moves + 1) & 1], discs[0] | discs[1]);
+		long forced = possible & opponentWins;
+		if (forced != 0) {
+			if ((forced & (forced - 1)) != 0) {
+				return 0;
+			}
+			possible = forced;
+		}
+		// never play directly beneath a cell the opponent would win with
+		return possible & ~(opponentWins >>> 1);
+	}
+
+	/**
+	 * @param col a column on the board
+	 * @return a mask with every cell of the column
+	 */
+	public static long columnMask(int col) {
+		return ((1L << ROWS) - 1) << (col * HORIZONTAL);
+	}
+
+	/**
+	 * @param cell a mask with a single cell set
+	 * @return the column the cell is in
+	 */
+	public static int columnOf(long cell) {
+		return Long.numberOfTrailingZeros(cell) / HORIZONTAL;
+	}
+
+	/**
+	 * Finds every empty cell that would complete four in a row for the discs in
+	 * @param position, whether or not a disc could be dropped there yet
+	 *
+	 * @param mask every occupied cell on the board
+	 */
+	private static long winningPositions(long position, long mask) {
+		// vertical, where the three discs can only be underneath
+		long r = (position << 1) & (position << 2) & (position << 3);
+		r |= completions(position, HORIZONTAL);
+		r |= completions(position, DIAGONAL_UP);
+		r |= completions(position, DIAGONAL_DOWN);
+		return r & (BOARD_MASK ^ mask);
+	}
+
+	/**
+	 * Finds every cell that has three of @param position's discs next to it along
+	 * one direction, in any of the four ways the gap can sit in a line of four
+	 */
+	private static long completions(long position, int step) {
+		long r = 0;
+		long p = (position << step) & (position << (2 * step));
+		r |= p & (position << (3 * step));
+		r |= p & (position >>> step);
+		p = (position >>> step) & (position >>> (2 * step));
+		r |= p & (position << step);
+		r |= p & (position >>> (3 * step));
+		return r;
+	}
+
+	/**
+	 * @return whether every cell on the board has been filled
+	 */
+	public boolean isFull() {
+		return moves == COLUMNS * ROWS;
+	}
+
+	/**
+	 * @return the color (1 or 2) of the player whose turn it is
+	 */
+	public int getCurrentColor() {
+		return (moves & 1) + 1;
+	}
+
+	/**
+	 * @return the number of discs on the board
+	 */
+	public int getMoves() {
+		return moves;
+	}
+
+	/**
+	 * @param i the index of a move, with 0 being the first move of the game
+	 * @return the column the move was played in
+	 */
+	public int getMove(int i) {
+		return history[i];
+	}
+
+	/**
+	 * Packs the position into a single number that is different for every
+	 * position: the player to move's discs added to the mask of occupied cells.
+	 * Adding the mask sets the empty bit above each column, which marks where the
+	 * column ends.
+	 *
+	 * @return the key of the position
+	 */
+	public long getKey() {
+		return discs[moves & 1] + (discs[0] | discs[1]);
+	}
+
+	/**
+	 * @return the key of the position reflected left to right, which has exactly
+	 *         the same score with every move mirrored
+	 */
+	public long getMirrorKey() {
+		return mirrored[moves & 1] + (mirrored[0] | mirrored[1]);
+	}
+
+	/**
+	 * A key shared by the position and its mirror image, so a cache of positions
+	 * only needs to hold one of the two. Moves stored with it have to be mirrored
+	 * back when isMirrorCanonical is true.
+	 *
+	 * @return the smaller of the key and the mirror key
+	 */
+	public long getCanonicalKey() {
+		return Math.min(getKey(), getMirrorKey());
+	}
+
+	/**
+	 * @return whether the canonical key is the key of the mirrored position
+	 */
+	public boolean isMirrorCanonical() {
+		return getMirrorKey() < getKey();
+	}
+
+	/**
+	 * @return whether the position is its own mirror image, in which case moves
+	 *         on either side of the center column are interchangeable
+	 */
+	public boolean isSymmetric() {
+		return getMirrorKey() == getKey();
+	}
+
+	/**
+	 * @return a new board with the same moves played in mirrored columns
+	 */
+	public BitBoard mirror() {
+		BitBoard mirror = new BitBoard();
+		for (int i = 0; i < moves; i++) {
+			mirror.play(COLUMNS - 1 - history[i]);
+		}
+		return mirror;
+	}
+
+	/**
+	 * @param col a column on the board
+	 * @return the number of discs in the column
+	 */
+	public int getHeight(int col) {
+		return heights[col];
+	}
+
+	/**
+	 * @param row a row on the board, with row 0 being the bottom row
+	 * @param col a column on the board
+	 * @return the color of the disc in the cell, or 0 if it is empty
+	 */
+	public int getCell(int row, int col) {
+		long bit = cellBit(row, col);
+		if ((discs[0] & bit) != 0) {
+			return 1;
+		}
+		if ((discs[1] & bit) != 0) {
+			return 2;
+		}
+		return 0;
+	}
+
+	/**
+	 * Builds a fresh array copy of the board in the layout Model has always
+	 * exposed: board[row][col], row 0 at the bottom, 0 for empty cells.
+	 *
+	 * @return the board as an array
+	 */
+	public Integer[][] toArray() {
+		Integer[][] board = new Integer[ROWS][COLUMNS];
+		for (int i = 0; i < ROWS; i++) {
+			for (int j = 0; j < COLUMNS; j++) {
+				board[i][j] = getCell(i, j);
+			}
+		}
+		return board;
+	}
+
+	private static long bottomMask() {
+		long mask = 0;
+		for (int col = 0; col < COLUMNS; col++) {
+			mask |= 1L << (col * HORIZONTAL);
+		}
+		return mask;
+	}
+
+	private static long cellBit(int row, int col) {
+		return 1L << (col * HORIZONTAL + row);
+	}
+}
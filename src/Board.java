@@ -0,0 +1,82 @@
+/**
+ * A board that discs are dropped into, of any Geometry.
+ *
+ * Colors are 1 for the player who moves first and 2 for the other player, and
+ * row 0 is the bottom row.
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public interface Board {
+
+	/**
+	 * @return the shape of the board and how many discs in a line win
+	 */
+	Geometry getGeometry();
+
+	/**
+	 * @param col a column on the board
+	 * @return whether a disc can still be dropped in the column
+	 */
+	boolean canPlay(int col);
+
+	/**
+	 * Drops a disc of the player to move into @param col. The column must not be
+	 * full.
+	 *
+	 * @return the row the disc landed in
+	 */
+	int play(int col);
+
+	/**
+	 * Removes the last disc that was played. There must be at least one move to
+	 * undo.
+	 *
+	 * @return the column the disc was removed from
+	 */
+	int undo();
+
+	/**
+	 * @return whether the last disc played completed a line. There must be at
+	 *         least one move on the board.
+	 */
+	boolean isLastMoveWin();
+
+	/**
+	 * @return whether every cell has a disc in it
+	 */
+	boolean isFull();
+
+	/**
+	 * @return the color (1 or 2) of the player whose turn it is
+	 */
+	int getCurrentColor();
+
+	/**
+	 * @return the number of discs on the board
+	 */
+	int getMoves();
+
+	/**
+	 * @param i the index of a move, with 0 being the first move of the game
+	 * @return the column the move was played in
+	 */
+	int getMove(int i);
+
+	/**
+	 * @param col a column on the board
+	 * @return the number of discs in the column
+	 */
+	int getHeight(int col);
+
+	/**
+	 * @return the color of the disc in the cell at @param row and @param col, or 0
+	 *         if it is empty
+	 */
+	int getCell(int row, int col);
+
+	/**
+	 * @return a fresh copy of the board as board[row][col], 0 for empty cells
+	 */
+	Integer[][] toArray();
+}
@@ -0,0 +1,55 @@
+/**
+ * Computer player that plays from an opening book while the game is still in
+ * it, and hands over to another player once the game leaves the book.
+ * 
+ * @author Yosef Jacobson
+ *
+ */
+public class BookPlayer implements ComputerPlayer {
+	private final OpeningBook book;
+	private final ComputerPlayer fallback;
+	private long bookMoves;
+	private long searchedMoves;
+
+	/**
+	 * @param book     the opening book to play from
+	 * @param fallback the player that picks moves the book does not cover
+	 */
+	public BookPlayer(OpeningBook book, ComputerPlayer fallback) {
+		this.book = book;
+		this.fallback = fallback;
+	}
+
+	@Override
+	public int chooseMove(BitBoard board) {
+		int col = book.getMove(board);
+		if (col >= 0) {
+			bookMoves++;
+			return col;
+		}
+		searchedMoves++;
+		return fallback.chooseMove(board);
+	}
+
+	/**
+	 * Closes the fallback player
+	 */
+	@Override
+	public void close() {
+		fallback.close();
+	}
+
+	/**
+	 * @return how many moves came straight from the book
+	 */
+	public long getBookMoves() {
+		return bookMoves;
+	}
+
+	/**
+	 * @return how many moves had to be handed to the fallback player
+	 */
+	public long getSearchedMoves() {
+		return searchedMoves;
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * A strategy the computer uses to pick its moves. Controller hands it a copy of
+ * the board whenever it is the computer's turn, so implementations are free to
+ * play and undo moves on it while they search.
+ * 
+ * @author Yosef Jacobson
+ *
+ */
+public interface ComputerPlayer extends AutoCloseable {
+
+	/**
+	 * Picks the next move for the player whose turn it is on @param board. The
+	 * game must not be over.
+	 * 
+	 * @return a column that is not full
+	 */
+	int chooseMove(BitBoard board);
+
+	/**
+	 * Stops any threads the player started. The player cannot be used afterwards.
+	 * Players that start none have nothing to do.
+	 */
+	@Override
+	default void close() {
+	}
+
+	/**
+	 * Creates a computer player from a short description, so players can be
+	 * picked on the command line. Supported descriptions are:
+	 * 
+	 * <pre>
+	 * random[:seed]
+	 * negamax[:depth[:tableMegabytes]]
+	 * parallel[:depth[:threads[:tableMegabytes]]]
+	 * timed[:moveMillis[:tableMegabytes]]
+	 * mcts[:moveMillis[:threads[:arenaMegabytes]]]
+	 * </pre>
+	 * 
+	 * @param spec the description of the player
+	 * @return a new player
+	 * @throws IllegalArgumentException if the description is not recognized
+	 */
+	static ComputerPlayer fromSpec(String spec) {
+		String[] parts = spec.split(":");
+		try {
+			switch (parts[0]) {
+			case "random":
+				return parts.length > 1 ? new RandomPlayer(Long.parseLong(parts[1])) : new RandomPlayer();
+			case "negamax":
+				return new NegamaxPlayer(intPart(parts, 1, 12),
+						new TranspositionTable(intPart(parts, 2, TranspositionTable.DEFAULT_MEGABYTES)));
+			case "parallel":
+				return new ParallelSearchPlayer(intPart(parts, 1, 12),
+						intPart(parts, 2, Runtime.getRuntime().availableProcessors()),
+						new TranspositionTable(intPart(parts, 3, TranspositionTable.DEFAULT_MEGABYTES)));
+			case "timed":
+				return new TimedSearchPlayer(
+						new NegamaxPlayer(NegamaxPlayer.UNLIMITED,
+								new TranspositionTable(intPart(parts, 2, TranspositionTable.DEFAULT_MEGABYTES))),
+						intPart(parts, 1, 1000));
+			case "mcts":
+				return new MctsPlayer(intPart(parts, 2, Runtime.getRuntime().availableProcessors()),
+						intPart(parts, 1, 1000), intPart(parts, 3, MctsPlayer.DEFAULT_MEGABYTES));
+			default:
+				throw new IllegalArgumentException("Unknown computer player " + spec);
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Bad number in computer player " + spec, e);
+		}
+	}
+
+	/**
+	 * @return the number at @param index in @param parts, or @param fallback if
+	 *         there are not that many parts
+	 */
+	static int intPart(String[] parts, int index, int fallback) {
+		return parts.length > index ? Integer.parseInt(parts[index]) : fallback;
+	}
+}
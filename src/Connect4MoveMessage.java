@@ -1,12 +1,24 @@
 import java.io.Serializable;
 
+/**
+ * A disc that was dropped: the row it landed in, its column and its color. A
+ * color of 0 means the disc at that cell was taken back.
+ *
+ * Messages are immutable, so Model hands out shared instances from of() rather
+ * than allocating one per move. COLUMN_FULL is sent to observers when a move is
+ * refused.
+ */
 public class Connect4MoveMessage implements Serializable {
 	public static int YELLOW = 1;
 	public static int RED = 2;
 	private static final long serialVersionUID = 1L;
-	private int row;
-	private int col;
-	private int color;
+	// the sentinel the view checks for, kept as (0, 0, 0) for older observers
+	public static final Connect4MoveMessage COLUMN_FULL = new Connect4MoveMessage(0, 0, 0);
+	// every cell on the largest board, indexed by color (0 to 2), column and row
+	private static final Connect4MoveMessage[] MOVES = allMoves();
+	private final int row;
+	private final int col;
+	private final int color;
 
 	public Connect4MoveMessage(int row, int col, int color) {
 		this.row = row;
@@ -14,6 +26,27 @@ public class Connect4MoveMessage implements Serializable {
 		this.color = color;
 	}
 
+	/**
+	 * @return the shared message for a disc of @param color landing at @param row,
+	 *         @param col, or for that disc being taken back if @param color is 0
+	 */
+	public static Connect4MoveMessage of(int row, int col, int color) {
+		return MOVES[(color * Geometry.MAX_SIZE + col) * Geometry.MAX_SIZE + row];
+	}
+
+	private static Connect4MoveMessage[] allMoves() {
+		Connect4MoveMessage[] moves = new Connect4MoveMessage[3 * Geometry.MAX_SIZE * Geometry.MAX_SIZE];
+		for (int color = 0; color <= 2; color++) {
+			for (int col = 0; col < Geometry.MAX_SIZE; col++) {
+				for (int row = 0; row < Geometry.MAX_SIZE; row++) {
+					moves[(color * Geometry.MAX_SIZE + col) * Geometry.MAX_SIZE + row] = new Connect4MoveMessage(
+							row, col, color);
+				}
+			}
+		}
+		return moves;
+	}
+
 	public int getRow() {
 		return row;
 	}
@@ -25,4 +58,4 @@ public class Connect4MoveMessage implements Serializable {
 	public int getColor() {
 		return color;
 	}
-}
\ No newline at end of file
+}
@@ -1,9 +1,30 @@
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.jupiter.api.Test;
 
 /**
- * Test suite for Connect4. Tests non-networked controller/model operations
+ * Test suite for Connect4. Tests controller/model operations, and the CPU a
+ * networked computer player uses while it waits
  * 
  * @author Yosef Jacobson
  *
@@ -38,4 +59,724 @@ public class Connect4Tests {
 		controller.computerTurn();
 		assertEquals(controller.isLoser(), true);
 	}
+
+	@Test
+	void bitBoardTest() {
+		BitBoard board = new BitBoard();
+
+		// yellow builds a rising diagonal from (0, 0) to (3, 3)
+		for (int col : new int[] { 0, 1, 1, 2, 2, 3, 2, 3, 3, 6 }) {
+			board.play(col);
+		}
+
+		assertEquals(board.isWin(1), false);
+		board.play(3);
+		assertEquals(board.isWin(1), true);
+		assertEquals(board.isWin(2), false);
+
+		board.undo();
+		assertEquals(board.isWin(1), false);
+		assertEquals(board.getHeight(3), 3);
+		assertEquals(board.getCurrentColor(), 1);
+	}
+
+	@Test
+	void computerIdleCpuTest() throws Exception {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		int port;
+		try (ServerSocket probe = new ServerSocket(0)) {
+			port = probe.getLocalPort();
+		}
+
+		// the client thinks for 20ms every move, so the server spends most of the
+		// game waiting for it
+		Model clientModel = new Model();
+		Controller client = new Controller(clientModel);
+		RandomPlayer random = new RandomPlayer(1);
+		client.setComputerPlayer(board -> {
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return random.chooseMove(board);
+		});
+		Thread clientThread = new Thread(() -> {
+			try {
+				// give the server time to start listening
+				Thread.sleep(200);
+			} catch (InterruptedException e) {
+				return;
+			}
+			client.startClient("localhost", port, false);
+			client.computerReceiveTurn();
+		});
+		clientThread.start();
+
+		Model serverModel = new Model();
+		Controller server = new Controller(serverModel);
+		server.setComputerPlayer(new RandomPlayer(2));
+		server.startServer(port, false);
+
+		long cpuBefore = threads.getCurrentThreadCpuTime();
+		long start = System.nanoTime();
+		server.computerTurn();
+		long cpu = threads.getCurrentThreadCpuTime() - cpuBefore;
+		long wall = System.nanoTime() - start;
+		clientThread.join();
+
+		assertEquals(serverModel.isGameOver(), true);
+		assertEquals(serverModel.getWinner(), clientModel.getWinner());
+		// a server polling for its turn would use the whole game's time
+		assertTrue(cpu < wall / 4, "server used " + cpu / 1000 + "us CPU in a " + wall / 1000 + "us game");
+	}
+
+	@Test
+	void gameLogTest() throws Exception {
+		Path file = Files.createTempFile("connect4", ".log");
+		Files.delete(file);
+		BitBoard won = new BitBoard();
+		for (int col : new int[] { 3, 3, 4, 4, 5, 5, 6 }) {
+			won.play(col);
+		}
+		BitBoard odd = BitBoard.fromMoves("1234567");
+		try (GameLog log = GameLog.open(file)) {
+			log.append(new GameRecord("human", "remote", 1, 1000, 2000, won));
+			log.append(new GameRecord("computer", "human", 0, 3000, 4000, odd));
+		}
+
+		try (GameLog.Reader reader = GameLog.read(file)) {
+			GameRecord first = reader.next();
+			assertEquals(first.getYellow(), "human");
+			assertEquals(first.getRed(), "remote");
+			assertEquals(first.getWinner(), 1);
+			assertEquals(first.getStartMillis(), 1000);
+			assertEquals(first.getEndMillis(), 2000);
+			assertEquals(first.getMoveCount(), 7);
+			assertEquals(first.replay().getKey(), won.getKey());
+			// an odd number of moves leaves the last byte half empty
+			assertEquals(reader.next().replay().getKey(), odd.getKey());
+			assertNull(reader.next());
+			assertFalse(reader.isTruncated());
+		}
+
+		// a crash partway through appending leaves half a record, which is skipped
+		// and then replaced by the next game appended
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+		try (GameLog.Reader reader = GameLog.read(file)) {
+			assertNotNull(reader.next());
+			assertNull(reader.next());
+			assertTrue(reader.isTruncated());
+		}
+		try (GameLog log = GameLog.open(file)) {
+			log.append(new GameRecord("computer", "human", 0, 3000, 4000, odd));
+		}
+		try (GameLog.Reader reader = GameLog.read(file)) {
+			assertNotNull(reader.next());
+			assertEquals(reader.next().getYellow(), "computer");
+			assertNull(reader.next());
+		}
+		Files.delete(file);
+	}
+
+	@Test
+	void mirrorTest() throws Exception {
+		String[] games = { "4453", "2342356722", "1176", "5534221", "23423567221336" };
+		NegamaxPlayer player = new NegamaxPlayer(10, new TranspositionTable(4));
+		for (String moves : games) {
+			BitBoard board = BitBoard.fromMoves(moves);
+			BitBoard mirror = board.mirror();
+			assertEquals(board.getMirrorKey(), mirror.getKey());
+			assertEquals(board.getCanonicalKey(), mirror.getCanonicalKey());
+			assertEquals(board.isMirrorCanonical(), !mirror.isMirrorCanonical());
+
+			// from a fresh table and from one the other position has filled
+			int move = new NegamaxPlayer(10, new TranspositionTable(4)).chooseMove(board);
+			assertEquals(new NegamaxPlayer(10, new TranspositionTable(4)).chooseMove(mirror),
+					BitBoard.COLUMNS - 1 - move);
+			int shared = player.chooseMove(board);
+			int score = player.getScore();
+			assertEquals(player.chooseMove(mirror), BitBoard.COLUMNS - 1 - shared);
+			assertEquals(player.getScore(), score);
+		}
+
+		assertFalse(BitBoard.fromMoves("4411").isSymmetric());
+		assertTrue(BitBoard.fromMoves("147").isSymmetric());
+
+		Path file = Files.createTempFile("connect4", ".book");
+		OpeningBookGenerator.main(new String[] { file.toString(), "4", "6", "1" });
+		OpeningBook book = OpeningBook.open(file);
+		for (String moves : new String[] { "", "1", "2", "12", "263", "445" }) {
+			BitBoard board = BitBoard.fromMoves(moves);
+			assertEquals(book.getMove(board.mirror()), BitBoard.COLUMNS - 1 - book.getMove(board));
+			assertEquals(book.getScore(board.mirror()), book.getScore(board));
+		}
+		Files.delete(file);
+	}
+
+	@Test
+	void geometryTest() {
+		// a GridBoard plays 7x6 connect 4 exactly like a BitBoard
+		Random random = new Random(16);
+		for (int game = 0; game < 200; game++) {
+			BitBoard bits = new BitBoard();
+			GridBoard grid = new GridBoard(Geometry.STANDARD);
+			boolean won = false;
+			while (!won && !bits.isFull()) {
+				int col = random.nextInt(BitBoard.COLUMNS);
+				assertEquals(grid.canPlay(col), bits.canPlay(col));
+				if (bits.canPlay(col)) {
+					assertEquals(grid.play(col), bits.play(col));
+					won = bits.isLastMoveWin();
+					assertEquals(grid.isLastMoveWin(), won);
+				}
+			}
+			assertArrayEquals(grid.toArray(), bits.toArray());
+		}
+
+		Geometry five = Geometry.fromSpec("9x7:5");
+		assertEquals(five, new Geometry(9, 7, 5));
+		assertEquals(Geometry.fromSpec(five.toString()), five);
+		assertEquals(Geometry.fromSpec("7x6"), Geometry.STANDARD);
+		assertThrows(IllegalArgumentException.class, () -> Geometry.fromSpec("3x3:4"));
+		assertThrows(IllegalArgumentException.class, () -> Geometry.fromSpec("16x6"));
+
+		// four in a row is not enough on 9x7 connect 5, five is, even at the edge
+		Model model = new Model(five);
+		for (int col = 5; col < 8; col++) {
+			model.update(col);
+			model.update(col);
+		}
+		model.update(8);
+		assertFalse(model.isGameOver());
+		model.update(8);
+		model.update(4);
+		assertTrue(model.isGameOver());
+		assertEquals(model.getWinner(), 1);
+		assertThrows(UnsupportedOperationException.class, () -> model.getPosition());
+	}
+
+	@Test
+	void applyUndoTest() {
+		Model model = new Model();
+		// yellow wins along the bottom row on the last move
+		String win = "4455667";
+		for (int i = 0; i < win.length(); i++) {
+			MoveResult result = model.apply(win.charAt(i) - '1');
+			assertEquals(result, i == win.length() - 1 ? MoveResult.WON : MoveResult.PLAYED);
+		}
+		assertEquals(model.getWinner(), 1);
+		assertTrue(model.isGameOver());
+		assertEquals(model.undo(), 6);
+		assertEquals(model.getWinner(), 0);
+		assertFalse(model.isGameOver());
+		while (model.getMoveCount() > 0) {
+			model.undo();
+		}
+
+		Model full = new Model();
+		for (int i = 0; i < BitBoard.ROWS; i++) {
+			assertTrue(full.apply(0).isPlayed());
+		}
+		assertEquals(full.apply(0), MoveResult.COLUMN_FULL);
+		assertSame(full.update(0), Connect4MoveMessage.COLUMN_FULL);
+		Connect4MoveMessage move = full.update(1);
+		assertSame(move, Connect4MoveMessage.of(0, 1, 1));
+		assertEquals(move.getColor(), 1);
+
+		// playing and taking back moves allocates nothing once warmed up
+		String game = "2252576253462244111563365343671351441";
+		for (int round = 0; round < 3; round++) {
+			long before = Allocations.allocatedBytes();
+			for (int n = 0; n < 100_000; n++) {
+				for (int i = 0; i < game.length(); i++) {
+					model.apply(game.charAt(i) - '1');
+				}
+				while (model.getMoveCount() > 0) {
+					model.undo();
+				}
+			}
+			long bytes = Allocations.allocatedBytes() - before;
+			if (before < 0 || round < 2) {
+				continue;
+			}
+			assertEquals(bytes / (100_000 * game.length()), 0);
+		}
+	}
+
+	@Test
+	void takeBackTest() {
+		// after any mix of moves and undos, the model matches one that only had
+		// the remaining moves played
+		Random random = new Random(19);
+		for (Geometry geometry : new Geometry[] { Geometry.STANDARD, Geometry.fromSpec("8x7"),
+				Geometry.fromSpec("9x7:5") }) {
+			for (int game = 0; game < 50; game++) {
+				Model model = new Model(geometry);
+				int[] played = new int[geometry.getCells()];
+				for (int step = 0; step < 200; step++) {
+					if (model.getMoveCount() > 0 && (model.isGameOver() || random.nextInt(3) == 0)) {
+						int last = played[model.getMoveCount() - 1];
+						assertEquals(model.undo(), last);
+					} else {
+						int col = random.nextInt(geometry.getColumns());
+						if (model.apply(col).isPlayed()) {
+							played[model.getMoveCount() - 1] = col;
+						}
+					}
+					Model replayed = new Model(geometry);
+					for (int i = 0; i < model.getMoveCount(); i++) {
+						replayed.apply(played[i]);
+					}
+					assertArrayEquals(model.getBoard(), replayed.getBoard());
+					assertEquals(model.getCurrentColor(), replayed.getCurrentColor());
+					assertEquals(model.getWinner(), replayed.getWinner());
+					assertEquals(model.isGameOver(), replayed.isGameOver());
+				}
+			}
+		}
+
+		// a local game takes moves straight back, and tells the view which cell
+		// was emptied
+		Model model = new Model();
+		Controller controller = new Controller(model);
+		controller.humanTurn(3);
+		controller.humanTurn(3);
+		assertSame(model.takeBack(), Connect4MoveMessage.of(1, 3, 0));
+		controller.takeBack();
+		assertEquals(model.getMoveCount(), 0);
+		controller.takeBack();
+		assertEquals(model.getMoveCount(), 0);
+
+		// a networked game only takes its move back when it asked to
+		try (ServerSocket server = new ServerSocket(0)) {
+			Thread other = new Thread(() -> {
+				try (Socket socket = server.accept()) {
+					GameProtocol protocol = new GameProtocol(socket.getInputStream(), socket.getOutputStream());
+					protocol.handshake();
+					protocol.sendStart(1);
+					assertEquals(protocol.readMove(), 3);
+					// a confirmation nobody asked for, then a move
+					protocol.sendTakeBack(1);
+					protocol.sendMove(4, 2);
+					assertEquals(protocol.readMove(), 5);
+					assertEquals(protocol.read(), GameProtocol.TAKEBACK);
+					protocol.sendTakeBack(protocol.getMoveCount());
+				} catch (IOException e) {
+					// the client hung up
+				}
+			});
+			other.start();
+			Model networked = new Model();
+			Controller client = new Controller(networked);
+			client.startClient("localhost", server.getLocalPort(), false);
+			client.humanTurn(3);
+			receiveUntil(client, networked, 2);
+			client.humanTurn(5);
+			client.takeBack();
+			receiveUntil(client, networked, 2);
+			assertFalse(client.isLoser());
+			other.join(10000);
+			assertFalse(other.isAlive());
+		} catch (IOException | InterruptedException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Drains @param controller's connection, as the JavaFX thread would, until
+	 * @param model has @param moves moves on it
+	 */
+	private static void receiveUntil(Controller controller, Model model, int moves) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		do {
+			Thread.sleep(10);
+			controller.receiveMoves();
+		} while (model.getMoveCount() != moves && System.currentTimeMillis() < deadline);
+		assertEquals(model.getMoveCount(), moves);
+	}
+
+	@Test
+	void timedSearchTest() {
+		// a position far too deep to solve in the budget still gets a move in time
+		TimedSearchPlayer player = new TimedSearchPlayer(
+				new NegamaxPlayer(NegamaxPlayer.UNLIMITED, new TranspositionTable(16)), 50);
+		BitBoard board = BitBoard.fromMoves("4453");
+		int col = player.chooseMove(board);
+		assertTrue(board.canPlay(col));
+		assertTrue(player.getDepthReached() >= 1);
+		assertTrue(player.getDepthReached() < BitBoard.COLUMNS * BitBoard.ROWS - 4);
+		assertTrue(player.getElapsedNanos() < 250_000_000L);
+		// it only stops early once half the budget is used
+		assertTrue(player.getSearch().wasAborted() || player.getElapsedNanos() > 25_000_000L);
+
+		// a forced win stops deepening as soon as it is found
+		board = BitBoard.fromMoves("445566");
+		col = player.chooseMove(board);
+		assertTrue(col == 2 || col == 6);
+		assertTrue(player.getScore() > 0);
+		assertEquals(player.getDepthReached(), 1);
+	}
+
+	@Test
+	void mctsTest() {
+		MctsPlayer player = new MctsPlayer(2, 10_000, 16);
+		player.setPlayoutLimit(20_000);
+		// take a win, and block one
+		int col = player.chooseMove(BitBoard.fromMoves("445566"));
+		assertTrue(col == 2 || col == 6);
+		assertEquals(player.chooseMove(BitBoard.fromMoves("11223")), 3);
+
+		// the tree carries over to the next move
+		BitBoard board = BitBoard.fromMoves("44");
+		board.play(player.chooseMove(new BitBoard(board)));
+		board.play(3);
+		assertTrue(board.canPlay(player.chooseMove(board)));
+		assertTrue(player.getReusedVisits() > 0);
+		assertEquals(player.getPlayouts(), 40_000);
+		player.close();
+	}
+
+	@Test
+	void batchTest() throws Exception {
+		// more positions than one chunk, so results from several chunks have to come
+		// back in order
+		Random random = new Random(7);
+		StringBuilder input = new StringBuilder("9\n");
+		String[] positions = new String[BatchEvaluator.CHUNK * 2];
+		for (int i = 0; i < positions.length; i++) {
+			BitBoard board = new BitBoard();
+			StringBuilder moves = new StringBuilder();
+			while (moves.length() < 26) {
+				int col = random.nextInt(BitBoard.COLUMNS);
+				if (board.canPlay(col) && !board.isWinningMove(col)) {
+					board.play(col);
+					moves.append(col + 1);
+				}
+			}
+			positions[i] = moves.toString();
+			input.append(positions[i]).append(" 0\n");
+		}
+		StringWriter output = new StringWriter();
+		try (BatchEvaluator evaluator = new BatchEvaluator(2, NegamaxPlayer.UNLIMITED, new TranspositionTable(16))) {
+			long count = evaluator.run(new BufferedReader(new StringReader(input.toString())), output);
+			assertEquals(count, positions.length + 1L);
+			assertEquals(evaluator.getInvalid(), 1L);
+		}
+		String[] lines = output.toString().split("\n");
+		assertEquals(lines[0], "9 invalid");
+		NegamaxPlayer solver = new NegamaxPlayer(NegamaxPlayer.UNLIMITED, new TranspositionTable(16));
+		for (int i = 0; i < positions.length; i += 37) {
+			assertEquals(lines[i + 1], positions[i] + " " + solver.solve(BitBoard.fromMoves(positions[i])));
+		}
+	}
+
+	@Test
+	void resumeTest() throws Exception {
+		// the side that accepted the connection keeps the longer board when one
+		// leads on from the other, and its own otherwise
+		assertArrayEquals(Controller.agree(new int[] { 3, 3 }, new int[] { 3, 3, 4 }), new int[] { 3, 3, 4 });
+		assertArrayEquals(Controller.agree(new int[] { 3, 3, 4 }, new int[] { 3, 3 }), new int[] { 3, 3, 4 });
+		assertArrayEquals(Controller.agree(new int[] { 3, 2 }, new int[] { 3, 3 }), new int[] { 3, 2 });
+
+		int port;
+		try (ServerSocket probe = new ServerSocket(0)) {
+			port = probe.getLocalPort();
+		}
+		// both sides think for 10ms every move, so the proxy cuts the connection
+		// mid-game, and each cut can lose a move in flight either way
+		Model serverModel = new Model();
+		Model clientModel = new Model();
+		Controller server = new Controller(serverModel);
+		Controller client = new Controller(clientModel);
+		server.setComputerPlayer(slowly(new RandomPlayer(3)));
+		client.setComputerPlayer(slowly(new RandomPlayer(4)));
+
+		try (FaultInjectingProxy proxy = new FaultInjectingProxy(0, "localhost", port)) {
+			proxy.start();
+			Thread serverThread = new Thread(() -> {
+				server.startServer(port, false);
+				server.computerTurn();
+			});
+			serverThread.start();
+			Thread clientThread = new Thread(() -> {
+				try {
+					// give the server time to start listening
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					return;
+				}
+				client.startClient("localhost", proxy.getPort(), false);
+				client.computerReceiveTurn();
+			});
+			clientThread.start();
+
+			// a game cut before it has started cannot be resumed
+			while (clientModel.getMoveCount() < 2) {
+				Thread.sleep(5);
+			}
+			for (int i = 0; i < 3 && !serverModel.isGameOver(); i++) {
+				proxy.cut();
+				Thread.sleep(100);
+			}
+			serverThread.join(30000);
+			clientThread.join(30000);
+
+			assertTrue(proxy.getCuts() > 0, "the game ended before the connection was cut");
+			assertEquals(proxy.getConnections(), proxy.getCuts() + 1);
+			assertTrue(serverModel.isGameOver());
+			assertTrue(clientModel.isGameOver());
+			assertEquals(clientModel.getMoveCount(), serverModel.getMoveCount());
+			for (int i = 0; i < serverModel.getMoveCount(); i++) {
+				assertEquals(clientModel.getMove(i), serverModel.getMove(i));
+			}
+		}
+	}
+
+	@Test
+	void connectionEndTest() throws Exception {
+		// a connection that ends behind a full queue keeps every frame that
+		// arrived before it ended
+		try (ServerSocket server = new ServerSocket(0)) {
+			Thread other = new Thread(() -> {
+				try (Socket socket = server.accept()) {
+					GameProtocol protocol = new GameProtocol(socket.getInputStream(), socket.getOutputStream());
+					for (int i = 0; i < Connection.QUEUE_SIZE; i++) {
+						protocol.sendMove(i % BitBoard.COLUMNS, i + 1);
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			});
+			other.start();
+			Connection connection = new Connection(new Socket("localhost", server.getLocalPort()));
+			CountDownLatch queued = new CountDownLatch(Connection.QUEUE_SIZE + 1);
+			connection.start(queued::countDown);
+			assertTrue(queued.await(10, TimeUnit.SECONDS));
+			for (int i = 0; i < Connection.QUEUE_SIZE; i++) {
+				Connection.Message message = connection.take();
+				assertEquals(message.type, GameProtocol.MOVE);
+				assertEquals(message.number, i + 1);
+			}
+			assertThrows(IOException.class, connection::take);
+			assertThrows(IOException.class, connection::take);
+			connection.close();
+			other.join(10000);
+		}
+	}
+
+	@Test
+	void badFrameTest() throws Exception {
+		// move counts above 127 are unsigned, as on a 15x15 board
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new GameProtocol(new ByteArrayInputStream(new byte[0]), bytes).sendSync(new int[200], 200);
+		GameProtocol reader = new GameProtocol(new ByteArrayInputStream(bytes.toByteArray()), new ByteArrayOutputStream());
+		assertEquals(reader.read(), GameProtocol.SYNC);
+		assertEquals(reader.getSyncMoves().length, 200);
+
+		// a move off the board ends the game instead of the computer's thread
+		try (ServerSocket server = new ServerSocket(0)) {
+			Thread other = new Thread(() -> {
+				try (Socket socket = server.accept()) {
+					GameProtocol protocol = new GameProtocol(socket.getInputStream(), socket.getOutputStream());
+					protocol.handshake();
+					protocol.sendStart(2);
+					protocol.sendMove(9);
+					socket.getInputStream().read();
+				} catch (IOException e) {
+					// the client hung up
+				}
+			});
+			other.start();
+			Model model = new Model();
+			Controller client = new Controller(model);
+			client.setComputerPlayer(new RandomPlayer(5));
+			client.startClient("localhost", server.getLocalPort(), false);
+			client.computerReceiveTurn();
+			other.join(10000);
+			assertFalse(other.isAlive());
+			assertEquals(model.getMoveCount(), 0);
+		}
+	}
+
+	@Test
+	void serverEndGameTest() throws Exception {
+		GameServer server = new GameServer(0, 0);
+		try (Socket first = new Socket("localhost", server.getPort());
+				Socket second = new Socket("localhost", server.getPort())) {
+			GameProtocol[] players = { new GameProtocol(first.getInputStream(), first.getOutputStream()),
+					new GameProtocol(second.getInputStream(), second.getOutputStream()) };
+			for (Socket socket : new Socket[] { first, second }) {
+				socket.setSoTimeout(5000);
+				socket.getOutputStream().write(GameProtocol.helloFrame().array());
+			}
+			for (int i = 0; i < 10; i++) {
+				server.step(50);
+			}
+			for (GameProtocol player : players) {
+				assertEquals(player.read(), GameProtocol.HELLO);
+				assertEquals(player.read(), GameProtocol.START);
+			}
+			GameProtocol mover = players[players[0].getSeat() == 1 ? 0 : 1];
+			GameProtocol other = players[players[0].getSeat() == 1 ? 1 : 0];
+			for (int i = 0; i < 3; i++) {
+				mover.sendMove(0);
+				server.step(1000);
+				other.sendMove(1);
+				server.step(1000);
+			}
+			// the winning move and a move out of turn arrive together, so whichever
+			// is handled first closes the other player's connection while its key is
+			// still waiting in the same batch
+			mover.sendMove(0);
+			other.sendMove(1);
+			Thread.sleep(200);
+			server.step(1000);
+			for (Socket socket : new Socket[] { first, second }) {
+				while (socket.getInputStream().read() >= 0) {
+					// skip what was sent before the server hung up
+				}
+			}
+
+			// and the server goes on to start the next game
+			try (Socket third = new Socket("localhost", server.getPort());
+					Socket fourth = new Socket("localhost", server.getPort())) {
+				GameProtocol[] next = { new GameProtocol(third.getInputStream(), third.getOutputStream()),
+						new GameProtocol(fourth.getInputStream(), fourth.getOutputStream()) };
+				for (Socket socket : new Socket[] { third, fourth }) {
+					socket.setSoTimeout(5000);
+					socket.getOutputStream().write(GameProtocol.helloFrame().array());
+				}
+				for (int i = 0; i < 10; i++) {
+					server.step(50);
+				}
+				for (GameProtocol player : next) {
+					assertEquals(player.read(), GameProtocol.HELLO);
+					assertEquals(player.read(), GameProtocol.START);
+				}
+				assertEquals(next[0].getSeat() + next[1].getSeat(), 3);
+			}
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	void spectatorResyncTest() throws Exception {
+		GameServer server = new GameServer(0, 0);
+		Thread stepper = null;
+		try (Socket first = new Socket("localhost", server.getPort());
+				Socket second = new Socket("localhost", server.getPort());
+				Socket watcher = new Socket()) {
+			GameProtocol[] players = { new GameProtocol(first.getInputStream(), first.getOutputStream()),
+					new GameProtocol(second.getInputStream(), second.getOutputStream()) };
+			for (Socket socket : new Socket[] { first, second }) {
+				socket.setTcpNoDelay(true);
+				socket.setSoTimeout(5000);
+				socket.getOutputStream().write(GameProtocol.helloFrame().array());
+			}
+			for (int i = 0; i < 10; i++) {
+				server.step(50);
+			}
+			for (GameProtocol player : players) {
+				assertEquals(player.read(), GameProtocol.HELLO);
+				assertEquals(player.read(), GameProtocol.START);
+			}
+			int moverIndex = players[0].getSeat() == 1 ? 0 : 1;
+			GameProtocol mover = players[moverIndex];
+			GameProtocol other = players[1 - moverIndex];
+			Socket moverSocket = moverIndex == 0 ? first : second;
+			Socket otherSocket = moverIndex == 0 ? second : first;
+
+			// a spectator with a tiny receive buffer that reads nothing until the end
+			watcher.setReceiveBufferSize(1024);
+			watcher.connect(new InetSocketAddress("localhost", server.getPort()));
+			ByteBuffer watch = ByteBuffer.allocate(12);
+			watch.putShort((short) 10).put((byte) GameProtocol.WATCH).putInt(GameProtocol.MAGIC)
+					.put((byte) GameProtocol.VERSION).putInt(0);
+			watcher.getOutputStream().write(watch.array());
+			for (int i = 0; i < 5; i++) {
+				server.step(50);
+			}
+
+			// far more frames than its socket buffers hold, then one move that stays
+			for (int i = 0; i < 400; i++) {
+				mover.sendMove(i % BitBoard.COLUMNS);
+				stepUntilFrame(server, otherSocket);
+				mover.sendTakeBack(1);
+				stepUntilFrame(server, otherSocket);
+				other.sendTakeBack(1);
+				stepUntilFrame(server, moverSocket);
+			}
+			mover.sendMove(3);
+			stepUntilFrame(server, otherSocket);
+			mover.sendResign();
+
+			stepper = new Thread(() -> {
+				try {
+					while (!Thread.currentThread().isInterrupted()) {
+						server.step(10);
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			});
+			stepper.start();
+			watcher.setSoTimeout(10000);
+			GameProtocol spectator = new GameProtocol(watcher.getInputStream(), watcher.getOutputStream());
+			assertEquals(spectator.read(), GameProtocol.HELLO);
+			int[] moves = new int[BitBoard.COLUMNS * BitBoard.ROWS];
+			int count = 0;
+			int syncs = 0;
+			for (int type = spectator.read(); type != GameProtocol.RESIGN; type = spectator.read()) {
+				if (type == GameProtocol.SYNC) {
+					int[] board = spectator.getSyncMoves();
+					System.arraycopy(board, 0, moves, 0, board.length);
+					count = board.length;
+					syncs++;
+				} else if (type == GameProtocol.MOVE) {
+					moves[count++] = spectator.getColumn();
+				} else if (type == GameProtocol.TAKEBACK) {
+					count -= spectator.getMoveCount();
+				}
+			}
+			// the SYNC sent on joining, and at least one more once it fell behind
+			assertTrue(syncs > 1);
+			assertEquals(count, 1);
+			assertEquals(moves[0], 3);
+		} finally {
+			if (stepper != null) {
+				stepper.interrupt();
+				stepper.join();
+			}
+			server.close();
+		}
+	}
+
+	/**
+	 * Steps @param server until a frame of a move or take-back arrives on
+	 * @param socket, and skips it
+	 */
+	private static void stepUntilFrame(GameServer server, Socket socket) throws IOException {
+		while (socket.getInputStream().available() < 4) {
+			server.step(10);
+		}
+		socket.getInputStream().readNBytes(4);
+	}
+
+	/**
+	 * @return @param player, taking 10ms over every move
+	 */
+	private static ComputerPlayer slowly(ComputerPlayer player) {
+		return board -> {
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return player.chooseMove(board);
+		};
+	}
 }
@@ -1,12 +1,12 @@
 import java.util.Observable;
 import java.util.Observer;
 
+import javafx.animation.TranslateTransition;
 import javafx.application.Application;
-import javafx.collections.ObservableList;
+import javafx.application.Platform;
 import javafx.event.EventHandler;
 import javafx.geometry.HPos;
 import javafx.geometry.Insets;
-import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
@@ -29,6 +29,7 @@ import javafx.scene.paint.Paint;
 import javafx.scene.shape.Circle;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
 /**
  * GUI for the Connect4 game.
@@ -42,18 +43,30 @@ import javafx.stage.Stage;
  *
  */
 public class Connect4View extends Application implements Observer {
+	private static final int CELL_WIDTH = 48;
+	// time a disc takes to fall one row, set with -Dconnect4.dropMillis=<ms>; 0
+	// places discs without animating them
+	private static final int DROP_MILLIS = Integer.getInteger("connect4.dropMillis", 40);
+
 	private Controller controller;
+	private Geometry geometry;
 	private GridPane gameView;
+	// the Circle drawn for every cell, and the animation that drops a disc into
+	// it, indexed by row from the top and then column
+	private Circle[][] cells;
+	private TranslateTransition[][] drops;
 	private BorderPane mainWindow;
 	private EventHandler<MouseEvent> clickHandler;
 
 	/**
 	 * Refreshes the view when a new move has been made in the model.
 	 * 
-	 * When notified by the corresponding Model of a change, iterates over all of
-	 * the drawn Circles and sets the correct Circle to the correct color. Displays
-	 * an error message if the chosen column is full, and displays a game over
-	 * message when the game ends.
+	 * When notified by the corresponding Model of a change, sets the Circle for
+	 * the cell that changed to the correct color and drops it in from the top of
+	 * the board, or sets it back to white if the move was taken back. Only that
+	 * one Circle is touched, and the drop runs as an animation, so the JavaFX
+	 * thread never waits for it. Displays an error message if the chosen column is
+	 * full, and displays a game over message once the last disc has landed.
 	 * 
 	 * @param o   the Model notifying this of a change
 	 * @param arg a Connect4MoveMessage containing the last move's information
@@ -61,37 +74,56 @@ public class Connect4View extends Application implements Observer {
 	@Override
 	public void update(Observable o, Object arg) {
 		Connect4MoveMessage turnInfo = (Connect4MoveMessage) arg;
-		int row = 5 - turnInfo.getRow();
+		int row = geometry.getRows() - 1 - turnInfo.getRow();
 		int col = turnInfo.getColumn();
 		Paint color = (turnInfo.getColor() == 1) ? Color.YELLOW : Color.RED;
+		if (turnInfo.getColor() == 0) {
+			// the disc was taken back
+			color = Color.WHITE;
+		}
 
-		if (turnInfo.getRow() == 0 && col == 0 && turnInfo.getColor() == 0) {
+		if (turnInfo == Connect4MoveMessage.COLUMN_FULL) {
 			Alert moveError = new Alert(Alert.AlertType.ERROR, "Column full, pick somewhere else!");
 			moveError.showAndWait();
 		}
 
 		else {
-			ObservableList<Node> circles = gameView.getChildren();
-			for (Node c : circles) {
-				if (GridPane.getRowIndex(c) == row && GridPane.getColumnIndex(c) == col) {
-					Circle changed = (Circle) c;
-					changed.setFill(color);
-					break;
-				}
+			Circle changed = cells[row][col];
+			TranslateTransition drop = drops[row][col];
+			// a disc taken back or played again while still falling
+			drop.stop();
+			changed.setFill(color);
+			changed.setTranslateY(0);
+
+			if (turnInfo.getColor() != 0 && DROP_MILLIS > 0 && row > 0) {
+				// falls from the top row, passing over the empty cells above it
+				changed.setTranslateY(-row * CELL_WIDTH);
+				drop.setDuration(Duration.millis(DROP_MILLIS * row));
+				drop.setFromY(-row * CELL_WIDTH);
+				// dialogs cannot be shown while animations are being processed
+				drop.setOnFinished(controller.isGameOver() ? event -> Platform.runLater(this::showResult) : null);
+				drop.playFromStart();
 			}
 
-			if (controller.isGameOver()) {
-				if (!controller.isLoser()) {
-					gameOver("You won!");
-				}
-
-				else {
-					gameOver("You lost. :(");
-				}
+			else if (controller.isGameOver()) {
+				showResult();
 			}
 		}
 	}
 
+	/**
+	 * Displays whether this player won or lost
+	 */
+	private void showResult() {
+		if (!controller.isLoser()) {
+			gameOver("You won!");
+		}
+
+		else {
+			gameOver("You lost. :(");
+		}
+	}
+
 	/**
 	 * Launches the GUI
 	 * 
@@ -108,12 +140,8 @@ public class Connect4View extends Application implements Observer {
 	 * @param stage the main window stage
 	 */
 	public void initialize(Stage stage) {
-		Model model = new Model();
-		model.addObserver(this);
-
-		controller = new Controller(model);
-
 		drawView();
+		newModel(Geometry.STANDARD);
 
 		Scene scene = new Scene(mainWindow, 344, 321);
 		stage.setTitle("Connect 4");
@@ -122,25 +150,52 @@ public class Connect4View extends Application implements Observer {
 	}
 
 	/**
-	 * Draws all GUI elements, including the Circles representing Connect4 tokens,
-	 * and a file menu that launches the network config dialog
+	 * Sets up a model and controller for a game on a board of @param geometry,
+	 * and draws an empty board of that size
 	 */
-	private void drawView() {
-		// gameView is the main view with all the Circles
-		gameView = new GridPane();
-		gameView.setVgap(8);
-		for (int k = 0; k < 7; k++) {
-			ColumnConstraints columnFormat = new ColumnConstraints(48);
+	private void newModel(Geometry geometry) {
+		this.geometry = geometry;
+		Model model = new Model(geometry);
+		model.addObserver(this);
+
+		if (controller != null) {
+			controller.close();
+		}
+		controller = new Controller(model);
+
+		gameView.getChildren().clear();
+		gameView.getColumnConstraints().clear();
+		for (int k = 0; k < geometry.getColumns(); k++) {
+			ColumnConstraints columnFormat = new ColumnConstraints(CELL_WIDTH);
 			columnFormat.setHalignment(HPos.CENTER);
 			gameView.getColumnConstraints().add(columnFormat);
 		}
 
-		for (int i = 0; i < 6; i++) {
-			for (int j = 0; j < 7; j++) {
-				gameView.add(new Circle(20, Color.WHITE), j, i);
+		cells = new Circle[geometry.getRows()][geometry.getColumns()];
+		drops = new TranslateTransition[geometry.getRows()][geometry.getColumns()];
+		for (int i = 0; i < geometry.getRows(); i++) {
+			for (int j = 0; j < geometry.getColumns(); j++) {
+				cells[i][j] = new Circle(20, Color.WHITE);
+				drops[i][j] = new TranslateTransition(Duration.ZERO, cells[i][j]);
+				drops[i][j].setToY(0);
+				gameView.add(cells[i][j], j, i);
 			}
 		}
 
+		if (mainWindow.getScene() != null) {
+			mainWindow.getScene().getWindow().sizeToScene();
+		}
+	}
+
+	/**
+	 * Draws all GUI elements, including the Circles representing Connect4 tokens,
+	 * and a file menu that launches the network config dialog
+	 */
+	private void drawView() {
+		// gameView is the main view with all the Circles
+		gameView = new GridPane();
+		gameView.setVgap(8);
+
 		// mainWindow is the GUI window, it contains the gameView and a menu
 		mainWindow = new BorderPane();
 		MenuBar menu = new MenuBar();
@@ -157,8 +212,11 @@ public class Connect4View extends Application implements Observer {
 				boolean isServer = setup.getIsServer();
 				int port = setup.getPort();
 				String ip = setup.getIP();
+				if (!setup.getGeometry().equals(geometry)) {
+					newModel(setup.getGeometry());
+				}
 				if (isServer && isHuman) {
-					controller.startServer(port);
+					controller.startServer(port, true);
 					enableHuman();
 				}
 
@@ -168,7 +226,7 @@ public class Connect4View extends Application implements Observer {
 				}
 
 				else if (isServer) {
-					controller.startServer(port);
+					controller.startServer(port, false);
 					enableComputer(true);
 				}
 
@@ -178,7 +236,11 @@ public class Connect4View extends Application implements Observer {
 				}
 			}
 		});
-		fileMenu.getItems().add(newGame);
+		// asks to take back the last move; in a networked game it only comes off the
+		// board once the other player confirms it
+		MenuItem takeBack = new MenuItem("Take Back Move");
+		takeBack.setOnAction((event) -> controller.takeBack());
+		fileMenu.getItems().addAll(newGame, takeBack);
 		menu.getMenus().add(fileMenu);
 		mainWindow.setTop(menu);
 
@@ -197,33 +259,9 @@ public class Connect4View extends Application implements Observer {
 				int yPos = (int) event.getSceneY();
 
 				if (yPos > 25) {
-					if (xPos <= 52) {
-						controller.humanTurn(0);
-					}
-
-					else if (xPos <= 100) {
-						controller.humanTurn(1);
-					}
-
-					else if (xPos <= 148) {
-						controller.humanTurn(2);
-					}
-
-					else if (xPos <= 196) {
-						controller.humanTurn(3);
-					}
-
-					else if (xPos <= 244) {
-						controller.humanTurn(4);
-					}
-
-					else if (xPos <= 292) {
-						controller.humanTurn(5);
-					}
-
-					else {
-						controller.humanTurn(6);
-					}
+					// the board starts 4 pixels in from the left of the window
+					int col = Math.max(0, Math.min((xPos - 4) / CELL_WIDTH, geometry.getColumns() - 1));
+					controller.humanTurn(col);
 				}
 			}
 
@@ -273,6 +311,7 @@ class NetworkSetupScreen extends Stage {
 	private boolean cancelled = true;
 	private int port;
 	private String ip;
+	private Geometry geometry;
 
 	/**
 	 * Constructor for NetworkSetupScreen
@@ -283,7 +322,7 @@ class NetworkSetupScreen extends Stage {
 	public NetworkSetupScreen() {
 		// setting up the main window
 		this.setWidth(450);
-		this.setHeight(200);
+		this.setHeight(240);
 		this.setTitle("Network Setup");
 		initModality(Modality.APPLICATION_MODAL);
 
@@ -337,9 +376,24 @@ class NetworkSetupScreen extends Stage {
 		textInput.add(new Label("Port"), 2, 0);
 		textInput.add(port, 3, 0);
 
+		// setting up a text field for the board size and how many in a row win, as
+		// columns x rows : connect
+		GridPane boardInput = new GridPane();
+		boardInput.setHgap(10);
+		TextField board = new TextField(Geometry.STANDARD.toString());
+		boardInput.add(new Label("Board"), 0, 0);
+		boardInput.add(board, 1, 0);
+		boardInput.add(new Label("columns x rows : in a row"), 2, 0);
+
 		// setting up buttons for "OK" and "Cancel" and a GridPane to hold them
 		Button ok = new Button("OK");
 		ok.setOnAction((event) -> {
+			try {
+				geometry = Geometry.fromSpec(board.getText().trim());
+			} catch (IllegalArgumentException e) {
+				new Alert(Alert.AlertType.ERROR, e.getMessage()).showAndWait();
+				return;
+			}
 			cancelled = false;
 			this.port = Integer.valueOf(port.getText());
 			ip = serverAddress.getText();
@@ -359,9 +413,10 @@ class NetworkSetupScreen extends Stage {
 		// setting up the main FlowPane to hold all previously created UI elements
 		FlowPane mainView = new FlowPane();
 		mainView.setVgap(15);
-		mainView.getChildren().addAll(options, textInput, buttons);
+		mainView.getChildren().addAll(options, textInput, boardInput, buttons);
 		FlowPane.setMargin(options, new Insets(10, 0, 0, 10));
 		FlowPane.setMargin(textInput, new Insets(0, 0, 0, 10));
+		FlowPane.setMargin(boardInput, new Insets(0, 0, 0, 10));
 		FlowPane.setMargin(buttons, new Insets(0, 0, 0, 10));
 
 		// set window to display on creation
@@ -383,6 +438,13 @@ class NetworkSetupScreen extends Stage {
 		return port;
 	}
 
+	/**
+	 * @return geometry the size of the board and how many in a row win
+	 */
+	public Geometry getGeometry() {
+		return geometry;
+	}
+
 	/**
 	 * @return isHuman whether or not the player is a human
 	 */
@@ -0,0 +1,316 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A connection to another game, with a single long-lived reader.
+ *
+ * Once started, one reader thread reads every frame that arrives for the rest
+ * of the connection's life and puts it on a bounded queue. Whoever is playing
+ * takes frames off the queue: the computer player blocks on take, and the GUI
+ * is told to drain the queue on the JavaFX thread. If the queue fills up the
+ * reader stops reading, which pushes back on the other side through TCP.
+ *
+ * The reader runs on a virtual thread, so a process can hold many connections
+ * without a platform thread for each.
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class Connection implements Closeable {
+	static final int QUEUE_SIZE = 64;
+
+	/**
+	 * One frame received from the other side. DISCONNECTED is queued once the
+	 * connection has failed or been closed, and nothing follows it.
+	 */
+	public static class Message {
+		public static final int DISCONNECTED = 0;
+
+		public final int type;
+		// the column of a MOVE, the seat of a START, the move count of a TAKEBACK
+		// or the moves kept by a RESUME
+		public final int value;
+		// the moves of a SYNC, or the moves after the kept ones of a RESUME
+		public final int[] moves;
+		// the number of moves on the board once a MOVE is played, or 0 if the
+		// other side did not say
+		public final int number;
+
+		Message(int type, int value, int[] moves) {
+			this(type, value, moves, 0);
+		}
+
+		Message(int type, int value, int[] moves, int number) {
+			this.type = type;
+			this.value = value;
+			this.moves = moves;
+			this.number = number;
+		}
+	}
+
+	private static final Message DISCONNECTED = new Message(Message.DISCONNECTED, 0, null);
+
+	private final Socket socket;
+	private final GameProtocol protocol;
+	private final BlockingQueue<Message> queue;
+	// the frames the reader may still queue. The queue has one slot more, kept
+	// for the DISCONNECTED that follows them.
+	private final Semaphore room = new Semaphore(QUEUE_SIZE);
+	private volatile IOException failure;
+	// the game's token from SESSION, or 0 if the other side never sent one
+	private volatile long session;
+
+	/**
+	 * @param socket a connected socket to another game
+	 */
+	public Connection(Socket socket) throws IOException {
+		this.socket = socket;
+		socket.setTcpNoDelay(true);
+		this.protocol = new GameProtocol(socket.getInputStream(), socket.getOutputStream());
+		this.queue = new ArrayBlockingQueue<>(QUEUE_SIZE + 1);
+	}
+
+	/**
+	 * Exchanges HELLO frames with the other side. Must be called before start.
+	 *
+	 * @see GameProtocol#handshake()
+	 */
+	public void handshake() throws IOException {
+		protocol.handshake();
+	}
+
+	/**
+	 * Waits for the START frame of a 7x6 connect 4 game. Must be called before
+	 * start.
+	 *
+	 * @return 1 if this side moves first, 2 if it moves second
+	 */
+	public int readStart() throws IOException {
+		return readStart(Geometry.STANDARD);
+	}
+
+	/**
+	 * Waits for the START frame sent by the side that accepted the connection, and
+	 * checks the game is on the board this side expects. Must be called before
+	 * start.
+	 *
+	 * @param geometry the board this side is set up to play on
+	 * @return 1 if this side moves first, 2 if it moves second
+	 * @throws IOException if the other side is playing on a different board
+	 */
+	public int readStart(Geometry geometry) throws IOException {
+		if (protocol.read() != GameProtocol.START) {
+			throw new IOException("Server did not start the game");
+		}
+		Geometry served = protocol.getGeometry();
+		if (!served.equals(geometry)) {
+			throw new IOException("Server is playing " + served + ", expected " + geometry);
+		}
+		return protocol.getSeat();
+	}
+
+	/**
+	 * Sends RESUME with every move on this side's board, after reconnecting to the
+	 * side that accepted the original connection, and waits for its answer. Must
+	 * be called after handshake and before start.
+	 *
+	 * @param token the game's token from SESSION
+	 * @param moves the columns played on this side's board, in order
+	 * @param count how many moves there are
+	 * @return the answer, with how many moves to keep as its value and the moves
+	 *         to play after them
+	 * @throws IOException if the other side does not resume this game
+	 */
+	public Message resume(long token, int[] moves, int count) throws IOException {
+		protocol.sendResume(token, 0, moves, count);
+		return readResume(token);
+	}
+
+	/**
+	 * Waits for a RESUME of the game with @param token. Must be called before
+	 * start.
+	 *
+	 * @return the frame, with the moves it keeps as its value
+	 * @throws IOException if another frame arrives, or a RESUME of another game
+	 */
+	public Message readResume(long token) throws IOException {
+		if (protocol.read() != GameProtocol.RESUME || protocol.getSession() != token) {
+			throw new IOException("Other side is not resuming this game");
+		}
+		session = token;
+		return new Message(GameProtocol.RESUME, protocol.getResumeKeep(), protocol.getResumeMoves());
+	}
+
+	/**
+	 * Starts the reader
+	 *
+	 * @param onMessage run on the reader thread every time a frame has been
+	 *                  queued, or null
+	 */
+	public void start(Runnable onMessage) {
+		startThread(() -> {
+			try {
+				while (true) {
+					int type = protocol.read();
+					if (type == GameProtocol.SESSION) {
+						session = protocol.getSession();
+						continue;
+					}
+					int value = type == GameProtocol.MOVE ? protocol.getColumn()
+							: type == GameProtocol.START ? protocol.getSeat()
+									: type == GameProtocol.TAKEBACK ? protocol.getMoveCount() : 0;
+					int[] moves = type == GameProtocol.SYNC ? protocol.getSyncMoves() : null;
+					int number = type == GameProtocol.MOVE ? protocol.getMoveNumber() : 0;
+					room.acquire();
+					queue.add(new Message(type, value, moves, number));
+					if (onMessage != null) {
+						onMessage.run();
+					}
+				}
+			} catch (IOException e) {
+				if (!socket.isClosed()) {
+					failure = e;
+				}
+			} catch (RuntimeException e) {
+				// a frame that could not be decoded still ends the connection cleanly,
+				// so whoever is waiting on the queue hears about it
+				failure = new IOException("Malformed frame from the other side", e);
+				try {
+					socket.close();
+				} catch (IOException closing) {
+					closing.printStackTrace();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			// always fits, even behind a full queue of frames
+			queue.add(DISCONNECTED);
+			if (onMessage != null) {
+				onMessage.run();
+			}
+		}, "connection-reader");
+	}
+
+	/**
+	 * Blocks until a frame arrives
+	 *
+	 * @return the frame
+	 * @throws IOException if the connection failed instead
+	 */
+	public Message take() throws IOException {
+		try {
+			Message message = queue.take();
+			if (message == DISCONNECTED) {
+				// later takes should see the disconnect as well
+				queue.add(DISCONNECTED);
+				throw failure != null ? failure : new IOException("Connection closed");
+			}
+			room.release();
+			return message;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the other side", e);
+		}
+	}
+
+	/**
+	 * @return the next frame that has arrived, or null if there is none yet. The
+	 *         last frame is always a DISCONNECTED.
+	 */
+	public Message poll() {
+		Message message = queue.poll();
+		if (message != null && message != DISCONNECTED) {
+			room.release();
+		}
+		return message;
+	}
+
+	/**
+	 * @return the error that ended the connection, or null if it is still open or
+	 *         was closed on purpose
+	 */
+	public IOException getFailure() {
+		return failure;
+	}
+
+	/**
+	 * @return the token this game can be resumed with if the connection fails, or
+	 *         0 if it cannot be
+	 */
+	public long getSession() {
+		return session;
+	}
+
+	/**
+	 * @return the protocol frames are sent with
+	 */
+	public GameProtocol getProtocol() {
+		return protocol;
+	}
+
+	public void sendMove(int col) throws IOException {
+		protocol.sendMove(col);
+	}
+
+	public void sendMove(int col, int number) throws IOException {
+		protocol.sendMove(col, number);
+	}
+
+	public void sendTakeBack(int moves) throws IOException {
+		protocol.sendTakeBack(moves);
+	}
+
+	public void sendStart(int seat, Geometry geometry) throws IOException {
+		protocol.sendStart(seat, geometry);
+	}
+
+	/**
+	 * Gives the other side @param token to resume the game with, and keeps it for
+	 * this side too
+	 */
+	public void sendSession(long token) throws IOException {
+		session = token;
+		protocol.sendSession(token);
+	}
+
+	/**
+	 * Answers a RESUME of the game with @param token
+	 *
+	 * @param keep  how many of the moves on the other side's board it keeps
+	 * @param moves the columns it plays after them, in order
+	 * @param count how many there are
+	 */
+	public void sendResume(long token, int keep, int[] moves, int count) throws IOException {
+		session = token;
+		protocol.sendResume(token, keep, moves, count);
+	}
+
+	/**
+	 * Ends the connection after a write to it failed with @param cause. The reader
+	 * then queues DISCONNECTED with it as the failure, as if it had failed to read.
+	 */
+	public void fail(IOException cause) {
+		failure = cause;
+		try {
+			socket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+
+	/**
+	 * Starts @param task on a virtual thread named @param name
+	 */
+	static Thread startThread(Runnable task, String name) {
+		return Thread.ofVirtual().name(name).start(task);
+	}
+}
@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test for Connection: many clients playing at once in one process.
+ *
+ * Starts a GameServer, then connects clients to it, each through a Connection
+ * with its own long-lived reader. The server pairs them into games, and every
+ * client answers each move it receives with a random legal move, straight from
+ * its reader. When every game has ended, prints how long connecting and playing
+ * took, the moves per second, the peak number of platform threads and the heap
+ * in use. The readers run on virtual threads, so the platform threads stay
+ * few however many clients there are.
+ *
+ * Usage: java ConnectionLoadTest [clients] [timeoutSeconds]
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class ConnectionLoadTest {
+
+	public static void main(String[] args) throws Exception {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int timeoutSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+		if (clients % 2 != 0) {
+			throw new IllegalArgumentException("Clients are paired into games, so there must be an even number");
+		}
+
+		GameServer server = new GameServer(0, 0);
+		Thread serverThread = new Thread(() -> {
+			try {
+				server.run();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}, "game-server");
+		serverThread.setDaemon(true);
+		serverThread.start();
+
+		CountDownLatch started = new CountDownLatch(clients);
+		CountDownLatch finished = new CountDownLatch(clients);
+		AtomicInteger failures = new AtomicInteger();
+		AtomicLong moves = new AtomicLong();
+		long start = System.nanoTime();
+		for (int i = 0; i < clients; i++) {
+			// waiting for START blocks until the server has paired this client, so
+			// every client is set up on a thread of its own
+			Connection.startThread(() -> {
+				try {
+					play(server.getPort(), started, finished, failures, moves);
+				} catch (IOException e) {
+					failures.incrementAndGet();
+					started.countDown();
+					finished.countDown();
+				}
+			}, "load-client");
+		}
+		started.await(timeoutSeconds, TimeUnit.SECONDS);
+		long connected = System.nanoTime();
+		boolean done = finished.await(timeoutSeconds, TimeUnit.SECONDS);
+		long end = System.nanoTime();
+		serverThread.interrupt();
+
+		Runtime runtime = Runtime.getRuntime();
+		System.out.printf("clients %d (%d games)%n", clients, clients / 2);
+		System.out.printf("connected in %.0f ms, played in %.0f ms%s%n", (connected - start) / 1e6,
+				(end - connected) / 1e6, done ? "" : " (timed out)");
+		System.out.printf("moves %d, moves/sec %.0f, failed clients %d%n", moves.get(),
+				moves.get() / ((end - connected) / 1e9), failures.get());
+		System.out.printf("peak platform threads %d, heap in use %d MB%n",
+				ManagementFactory.getThreadMXBean().getPeakThreadCount(),
+				(runtime.totalMemory() - runtime.freeMemory()) >> 20);
+	}
+
+	/**
+	 * Connects one client to the server on @param port and starts it playing.
+	 * Counts down @param started once it has been paired, and @param finished once
+	 * its game has ended.
+	 */
+	private static void play(int port, CountDownLatch started, CountDownLatch finished, AtomicInteger failures,
+			AtomicLong moves) throws IOException {
+		Connection connection = new Connection(new Socket(InetAddress.getLoopbackAddress(), port));
+		connection.handshake();
+		int seat = connection.readStart();
+		BitBoard board = new BitBoard();
+		started.countDown();
+
+		connection.start(() -> {
+			Connection.Message message;
+			while ((message = connection.poll()) != null) {
+				try {
+					if (message.type == GameProtocol.MOVE) {
+						moves.incrementAndGet();
+						board.play(message.value);
+						if (!isOver(board)) {
+							reply(connection, board);
+						}
+					} else if (message.type == Connection.Message.DISCONNECTED) {
+						// the server hangs up once a game is over, anything earlier is a failure
+						if (!isOver(board)) {
+							failures.incrementAndGet();
+						}
+						connection.close();
+						finished.countDown();
+					}
+				} catch (IOException e) {
+					failures.incrementAndGet();
+				}
+			}
+		});
+		if (seat == 1) {
+			reply(connection, board);
+		}
+	}
+
+	/**
+	 * Plays a random legal move on @param board and sends it
+	 */
+	private static void reply(Connection connection, BitBoard board) throws IOException {
+		int col;
+		do {
+			col = ThreadLocalRandom.current().nextInt(BitBoard.COLUMNS);
+		} while (!board.canPlay(col));
+		board.play(col);
+		connection.sendMove(col);
+	}
+
+	private static boolean isOver(BitBoard board) {
+		return board.isLastMoveWin() || board.isFull();
+	}
+}
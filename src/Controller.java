@@ -1,10 +1,13 @@
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.net.ProtocolException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
-import java.util.Random;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javafx.application.Platform;
 
@@ -17,25 +20,88 @@ import javafx.application.Platform;
  */
 public class Controller {
 
+	// how many moves ahead the computer player looks by default
+	private static final int AI_DEPTH = 12;
+	// memory for the computer player's transposition table, set at startup with
+	// -Dconnect4.ttMegabytes=<size>
+	private static final int AI_TABLE_MEGABYTES = Integer.getInteger("connect4.ttMegabytes",
+			TranspositionTable.DEFAULT_MEGABYTES);
+	// threads the computer player searches with, set with -Dconnect4.threads=<n>
+	private static final int AI_THREADS = Integer.getInteger("connect4.threads", 1);
+	// opening book the computer player starts from, set with
+	// -Dconnect4.book=<file>
+	private static final String AI_BOOK = System.getProperty("connect4.book");
+	// file every finished game is appended to, set with
+	// -Dconnect4.gamelog=<file>
+	private static final String GAME_LOG = System.getProperty("connect4.gamelog");
+	// time the computer player may spend on each move, searching deeper until it
+	// runs out, set with -Dconnect4.moveMillis=<ms>; 0 searches to AI_DEPTH
+	private static final int AI_MOVE_MILLIS = Integer.getInteger("connect4.moveMillis", 0);
+	// a different computer player to use instead of the search, described as in
+	// ComputerPlayer.fromSpec, set with -Dconnect4.player=<spec>
+	private static final String AI_PLAYER = System.getProperty("connect4.player");
+	// database of solved positions the computer player reuses, set with
+	// -Dconnect4.positions=<directory>
+	private static final String AI_POSITIONS = System.getProperty("connect4.positions");
+	// how long a networked game waits for the other player to come back after the
+	// connection fails, set with -Dconnect4.reconnectMillis=<ms>
+	private static final int RECONNECT_MILLIS = Integer.getInteger("connect4.reconnectMillis", 30000);
+	// longest wait between attempts to connect again
+	private static final int MAX_RETRY_MILLIS = 1000;
+
 	private Model model;
-	private ObjectOutputStream output;
-	private ObjectInputStream input;
-	private boolean isLoser, isConnected, isTurn;
+	// created the first time the computer moves, unless set before then
+	private volatile ComputerPlayer ai;
+	// replaced by the reconnecting thread when the game is resumed
+	private volatile Connection connection;
+	// where the game was started: the server keeps listening on its port, and the
+	// client connects to the same address, if the connection has to be resumed
+	private ServerSocket listener;
+	private String address;
+	private int port;
+	private boolean isHuman;
+	// set while a failed connection is being resumed
+	private volatile boolean reconnecting;
+	// set on the JavaFX thread while this player's request to take back their
+	// move is waiting for the other player to confirm it
+	private boolean pendingTakeBack;
+	// set while a drain of the connection's queue is waiting to run on the
+	// JavaFX thread, so a burst of frames schedules only one
+	private final AtomicBoolean drainScheduled = new AtomicBoolean();
+	// read by the JavaFX thread, the computer player and the connection's reader
+	private volatile boolean isLoser, isConnected, isTurn;
+	// what the game log records about this game: who is playing here, which
+	// side they play (0 in a local game), and when the first move was made
+	private GameLog log;
+	private volatile String player = "human";
+	private volatile int seat;
+	private long gameStart;
+	private boolean recorded;
 
 	/**
 	 * Constructor. Ties Controller to @param model
 	 */
 	public Controller(Model model) {
 		this.model = model;
+		if (GAME_LOG != null) {
+			try {
+				log = GameLog.open(Paths.get(GAME_LOG));
+				model.addObserver((o, arg) -> record());
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 		isLoser = true;
 		isConnected = false;
-		isTurn = false;
+		// a local game is always this player's turn, a networked one decides when
+		// it starts
+		isTurn = true;
 	}
 
 	/**
 	 * This method calls the update method in the model with what column was chosen
-	 * by the player, then sends the move and waits to receive the next one if a
-	 * connection has been established.
+	 * by the player, then sends the move if a connection has been established.
+	 * The other player's reply arrives through the connection's reader.
 	 * 
 	 * @param col the column chosen by the player
 	 * @return whether the column is full or not
@@ -44,138 +110,548 @@ public class Controller {
 		if (isTurn) {
 			Connect4MoveMessage move = model.update(col);
 
-			if (isConnected) {
+			// a full column is not a move, so the turn stays with this player
+			if (isConnected && move.getColor() != 0) {
 				isLoser = true;
-				sendAndReceive(move);
+				sendMove(move);
 			}
 		}
 	}
 
 	/**
-	 * Used for the first turn of the client, receives a move without making one
-	 * first.
-	 * 
-	 * @throws ClassNotFoundException or IOException if there is an error reading
-	 *                                the next move
+	 * Takes back the last move. In a local game it comes off the board right away.
+	 * In a networked game only the player who just moved can take their move back,
+	 * and only until the other player replies: the request is sent, and the move
+	 * comes off the board once the other player confirms it. The computer player
+	 * never takes moves back.
 	 */
-	public void humanReceiveTurn() {
-		new Thread(() -> {
+	public void takeBack() {
+		if (!"human".equals(player) || model.getMoveCount() == 0 || isGameOver()) {
+			return;
+		}
+		if (!isConnected) {
+			model.takeBack();
+			return;
+		}
+		if (!isTurn && !reconnecting) {
 			try {
-				Connect4MoveMessage nextMove = (Connect4MoveMessage) input.readObject();
-				Platform.runLater(() -> {
-					model.update(nextMove.getColumn());
-					isTurn = true;
-				});
-			} catch (ClassNotFoundException e) {
-				e.printStackTrace();
+				pendingTakeBack = true;
+				connection.sendTakeBack(model.getMoveCount());
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
-		}).start();
+		}
+	}
+
+	/**
+	 * Handles a TAKEBACK from the other player, either asking to take back the
+	 * move they just played or confirming that ours was taken back. Ignored if the
+	 * board no longer has @param moves moves on it, since then a move crossed the
+	 * request and answered it, and a confirmation is ignored unless this player
+	 * asked.
+	 */
+	private void receiveTakeBack(int moves) throws IOException {
+		if (moves == 0 || moves != model.getMoveCount() || isGameOver() || !isTurn && !pendingTakeBack) {
+			return;
+		}
+		pendingTakeBack = false;
+		model.takeBack();
+		if (isTurn) {
+			// their move came off, so it is their turn again
+			isTurn = false;
+			isLoser = true;
+			connection.sendTakeBack(moves);
+		} else {
+			isTurn = true;
+			isLoser = false;
+		}
+	}
+
+	/**
+	 * Starts the connection's reader. For a human player every frame it receives
+	 * is handed to the JavaFX thread, which updates the model; the computer player
+	 * takes frames off the connection itself.
+	 */
+	private void listen(boolean isHuman) {
+		if (!isHuman) {
+			connection.start(null);
+			return;
+		}
+		connection.start(() -> {
+			if (drainScheduled.compareAndSet(false, true)) {
+				Platform.runLater(this::receiveMoves);
+			}
+		});
+	}
+
+	/**
+	 * Applies every frame waiting on the connection. Runs on the JavaFX thread,
+	 * or on the test's thread when there is no JavaFX.
+	 */
+	void receiveMoves() {
+		drainScheduled.set(false);
+		Connection.Message message;
+		while ((message = connection.poll()) != null) {
+			if (message.type == GameProtocol.MOVE) {
+				if (isOutOfTurn(message)) {
+					continue;
+				}
+				try {
+					model.update(checkMove(message.value));
+				} catch (ProtocolException e) {
+					protocolError(e);
+					return;
+				}
+				// a move answers any request to take ours back
+				pendingTakeBack = false;
+				isLoser = false;
+				isTurn = true;
+			} else if (message.type == GameProtocol.TAKEBACK) {
+				try {
+					receiveTakeBack(message.value);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			} else if (message.type == Connection.Message.DISCONNECTED && connection.getFailure() != null) {
+				connectionLost(connection.getFailure());
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return @param col, once checked to be a column the other player could have
+	 *         played on this board
+	 * @throws ProtocolException if it is off the board or the column is full
+	 */
+	private int checkMove(int col) throws ProtocolException {
+		if (col < 0 || col >= model.getGeometry().getColumns() || !model.canPlay(col)) {
+			throw new ProtocolException("Other player sent an illegal move in column " + col);
+		}
+		return col;
+	}
+
+	/**
+	 * Gives up on a connection whose other side broke the protocol. Unlike a
+	 * failed connection, it is not resumed.
+	 */
+	private void protocolError(ProtocolException e) {
+		e.printStackTrace();
+		isTurn = false;
+		try {
+			connection.close();
+		} catch (IOException closing) {
+			closing.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return whether @param message is a move numbered for a different point in
+	 *         the game than the board is at, which is dropped
+	 */
+	private boolean isOutOfTurn(Connection.Message message) {
+		return message.number != 0 && message.number != model.getMoveCount() + 1;
+	}
+
+	/**
+	 * Called on the JavaFX thread when the connection fails. The game is resumed
+	 * in the background, and nothing can be played until the boards are back in
+	 * line. Even a game that is over here is resumed, since the other side may
+	 * not have the move that ended it.
+	 */
+	private void connectionLost(IOException failure) {
+		reconnecting = true;
+		isTurn = false;
+		// a request to take back a move is lost with the connection
+		pendingTakeBack = false;
+		int[] moves = getMoves();
+		IOException unexpected = isGameOver() ? null : failure;
+		Connection.startThread(() -> {
+			Connection.Message answer = resume(moves, unexpected);
+			Platform.runLater(() -> resumed(answer));
+		}, "reconnect");
+	}
+
+	/**
+	 * Connects to the other player again after the connection failed mid-game.
+	 * The server waits for the client on the port the game started on, and the
+	 * client keeps trying to connect to it, until RECONNECT_MILLIS have passed.
+	 * The server then picks the board both sides go on from, and sends the client
+	 * only the moves it is missing.
+	 *
+	 * @param moves   the columns played on this side's board, in order
+	 * @param failure what ended the connection, printed if the game cannot go on,
+	 *                or null to give up quietly
+	 * @return how many of moves to keep as its value, and the moves to play after
+	 *         them, or null if the other player did not come back in time
+	 */
+	private Connection.Message resume(int[] moves, IOException failure) {
+		long token = connection.getSession();
+		try {
+			connection.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		long deadline = System.currentTimeMillis() + RECONNECT_MILLIS;
+		long retryMillis = 50;
+		long remaining;
+		// a game without a token, such as one on a GameServer, cannot be resumed
+		while (token != 0 && (remaining = deadline - System.currentTimeMillis()) > 0) {
+			Socket socket = null;
+			try {
+				Connection.Message answer;
+				if (listener != null) {
+					listener.setSoTimeout((int) remaining);
+					socket = listener.accept();
+					socket.setSoTimeout((int) remaining);
+					Connection next = new Connection(socket);
+					next.handshake();
+					int[] theirs = next.readResume(token).moves;
+					int[] agreed = agree(moves, theirs);
+					int keep = countCommon(theirs, agreed);
+					next.sendResume(token, keep, Arrays.copyOfRange(agreed, keep, agreed.length), agreed.length - keep);
+					answer = new Connection.Message(GameProtocol.RESUME, moves.length,
+							Arrays.copyOfRange(agreed, moves.length, agreed.length));
+					connection = next;
+				} else {
+					socket = new Socket(address, port);
+					socket.setSoTimeout((int) remaining);
+					Connection next = new Connection(socket);
+					next.handshake();
+					answer = next.resume(token, moves, moves.length);
+					connection = next;
+				}
+				socket.setSoTimeout(0);
+				return answer;
+			} catch (IOException e) {
+				if (socket != null) {
+					try {
+						socket.close();
+					} catch (IOException closing) {
+						closing.printStackTrace();
+					}
+				}
+				// the server is not listening again yet
+				if (listener == null) {
+					try {
+						Thread.sleep(retryMillis);
+					} catch (InterruptedException interrupted) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+					retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+				}
+			}
+		}
+		if (failure != null) {
+			failure.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Brings this side's board in line with the resumed game, and starts reading
+	 * the new connection. Runs on the thread that plays, like every other change
+	 * to the model.
+	 *
+	 * @param answer what resume returned, or null if the game could not be resumed
+	 */
+	private void resumed(Connection.Message answer) {
+		reconnecting = false;
+		if (answer == null) {
+			return;
+		}
+		while (model.getMoveCount() > answer.value) {
+			model.takeBack();
+		}
+		for (int col : answer.moves) {
+			model.update(col);
+		}
+		isTurn = model.getCurrentColor() == seat;
+		isLoser = !isTurn;
+		listen(isHuman);
+	}
+
+	/**
+	 * @return the board a resumed game goes on from, given the moves on the
+	 *         server's board and on the client's. The client's board leads on from
+	 *         the server's if the server missed moves while the connection was
+	 *         down, and then it is the one kept. Otherwise the server's is: the
+	 *         client missed moves, or the two took different moves back.
+	 */
+	static int[] agree(int[] server, int[] client) {
+		return countCommon(server, client) == server.length ? client : server;
+	}
+
+	/**
+	 * @return how many moves @param a and @param b start with in common
+	 */
+	private static int countCommon(int[] a, int[] b) {
+		int common = 0;
+		while (common < a.length && common < b.length && a[common] == b[common]) {
+			common++;
+		}
+		return common;
+	}
 
+	/**
+	 * @return the columns played on the board so far, in order
+	 */
+	private int[] getMoves() {
+		int[] moves = new int[model.getMoveCount()];
+		for (int i = 0; i < moves.length; i++) {
+			moves[i] = model.getMove(i);
+		}
+		return moves;
 	}
 
 	/**
-	 * While the game hasn't ended, chooses a random column for the computer to play
-	 * and calls update with that column, then sends the move and waits for the next
-	 * one if a connection has been established
+	 * Blocks until the other player's next move arrives. Used by the computer
+	 * player, which waits on the connection's queue instead of the JavaFX thread.
+	 * Requests to take back a move are skipped: the computer only waits once it
+	 * has replied, so they always come too late. So are moves out of turn.
 	 * 
+	 * @return the column that was played
+	 * @throws ProtocolException if a frame other than a move arrives, or an
+	 *                           illegal move
+	 * @throws IOException       if the connection fails
+	 */
+	private int awaitMove() throws IOException {
+		Connection.Message message = connection.take();
+		while (message.type == GameProtocol.TAKEBACK || message.type == GameProtocol.MOVE && isOutOfTurn(message)) {
+			message = connection.take();
+		}
+		if (message.type != GameProtocol.MOVE) {
+			throw new ProtocolException("Expected a move, got frame type " + message.type);
+		}
+		return checkMove(message.value);
+	}
+
+	/**
+	 * Sets the strategy the computer uses to choose its moves
+	 * 
+	 * @param ai the computer player
+	 */
+	public void setComputerPlayer(ComputerPlayer ai) {
+		if (this.ai != null && this.ai != ai) {
+			this.ai.close();
+		}
+		this.ai = ai;
+	}
+
+	/**
+	 * While the game hasn't ended, asks the computer player for a column to play
+	 * and calls update with that column, then sends the move if a connection has
+	 * been established. Whenever it is the other player's turn, blocks on the
+	 * connection's queue until their move arrives, so a waiting computer player
+	 * uses no CPU. Without a connection the computer plays both sides. If the
+	 * connection fails the game is resumed, and play goes on from the board both
+	 * sides agree on.
+	 * 
+	 * @throws IOException if there is an error writing a move or reading the next
+	 *                     one
 	 */
 	public void computerTurn() {
+		player = "computer";
 		while (!isGameOver()) {
-			if (isTurn) {
-				Random rand = new Random();
-				int col = rand.nextInt(7);
+			try {
+				if (!isTurn) {
+					model.update(awaitMove());
+					isLoser = false;
+					isTurn = true;
+					continue;
+				}
+				int col = chooseMove();
 				Connect4MoveMessage move = model.update(col);
 
 				if (isConnected) {
 					isLoser = true;
-					sendAndReceiveAI(move);
+					isTurn = false;
+					connection.sendMove(move.getColumn(), model.getMoveCount());
+				}
+			} catch (ProtocolException e) {
+				protocolError(e);
+				return;
+			} catch (IOException e) {
+				if (!isConnected) {
+					e.printStackTrace();
+					return;
+				}
+				Connection.Message answer = resume(getMoves(), e);
+				if (answer == null) {
+					return;
 				}
+				resumed(answer);
 			}
 		}
+		if (isConnected) {
+			resumeAfterGame();
+		}
 	}
 
 	/**
-	 * First has the computer wait to receive the first turn, then calls
-	 * computerTurn() to begin the AI's game loop
-	 * 
-	 * @throws ClassNotFoundException or IOException if there is an error reading
-	 *                                the next move
+	 * Keeps the game open on another thread once it is over, in case the move
+	 * that ended it was lost when the connection failed. The other side then
+	 * resumes the game to get it.
+	 */
+	private void resumeAfterGame() {
+		Connection.startThread(() -> {
+			while (true) {
+				try {
+					connection.take();
+				} catch (IOException e) {
+					Connection.Message answer = resume(getMoves(), null);
+					if (answer == null) {
+						return;
+					}
+					// the view is only told about changes to the model on the JavaFX
+					// thread; take() waits for the new connection's reader it starts
+					onFxThread(() -> resumed(answer));
+				}
+			}
+		}, "resume-after-game");
+	}
+
+	/**
+	 * Runs @param change on the JavaFX thread, or straight away on this thread
+	 * when JavaFX is not running, as in a game played without the view
+	 */
+	private static void onFxThread(Runnable change) {
+		try {
+			Platform.runLater(change);
+		} catch (IllegalStateException e) {
+			change.run();
+		}
+	}
+
+	/**
+	 * @return the computer player configured with the connect4 system properties.
+	 *         Only created once the computer first has to move, so games without
+	 *         one never allocate its table.
+	 */
+	private ComputerPlayer createComputerPlayer() {
+		ComputerPlayer ai;
+		if (AI_PLAYER != null) {
+			ai = ComputerPlayer.fromSpec(AI_PLAYER);
+		} else if (AI_THREADS > 1) {
+			ai = new ParallelSearchPlayer(AI_DEPTH, AI_THREADS, new TranspositionTable(AI_TABLE_MEGABYTES));
+		} else {
+			NegamaxPlayer search = new NegamaxPlayer(AI_MOVE_MILLIS > 0 ? NegamaxPlayer.UNLIMITED : AI_DEPTH,
+					new TranspositionTable(AI_TABLE_MEGABYTES));
+			if (AI_POSITIONS != null) {
+				try {
+					PositionDatabase positions = PositionDatabase.open(Paths.get(AI_POSITIONS));
+					search.setDatabase(positions);
+					// write out what this game solved once it is over
+					model.addObserver((o, arg) -> {
+						if (model.isGameOver()) {
+							try {
+								positions.flush();
+							} catch (IOException e) {
+								e.printStackTrace();
+							}
+						}
+					});
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			ai = search;
+			if (AI_MOVE_MILLIS > 0) {
+				TimedSearchPlayer timed = new TimedSearchPlayer(search, AI_MOVE_MILLIS);
+				timed.setLog(System.out);
+				ai = timed;
+			}
+		}
+		if (AI_BOOK != null) {
+			try {
+				ai = new BookPlayer(OpeningBook.open(Paths.get(AI_BOOK)), ai);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return ai;
+	}
+
+	/**
+	 * @return the column the computer plays next. The computer players only search
+	 *         7x6 connect 4, so on any other board it plays a random legal column.
+	 */
+	private int chooseMove() {
+		if (model.getGeometry().isStandard()) {
+			if (ai == null) {
+				ai = createComputerPlayer();
+			}
+			return ai.chooseMove(model.getPosition());
+		}
+		int col;
+		do {
+			col = ThreadLocalRandom.current().nextInt(model.getGeometry().getColumns());
+		} while (!model.canPlay(col));
+		return col;
+	}
+
+	/**
+	 * Starts the computer player on the side that moves second. computerTurn()
+	 * already waits for the other player's move first, so this is the same loop.
 	 */
 	public void computerReceiveTurn() {
+		computerTurn();
+	}
+
+	/**
+	 * Sends @param move to the other player. If it cannot be written the
+	 * connection is failed with the error, so the game is resumed straight away,
+	 * and the move stays on this side's board to be resumed from.
+	 */
+	private void sendMove(Connect4MoveMessage move) {
+		isTurn = false;
 		try {
-			Connect4MoveMessage nextMove = (Connect4MoveMessage) input.readObject();
-			model.update(nextMove.getColumn());
-			isTurn = true;
-			computerTurn();
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
+			connection.sendMove(move.getColumn(), model.getMoveCount());
 		} catch (IOException e) {
-			e.printStackTrace();
+			connection.fail(e);
 		}
-
 	}
 
 	/**
-	 * Sends @param move to the other player, then waits for the next move if the
-	 * game hasn't ended
-	 * 
-	 * @throws ClassNotFoundException or IOException if there is an error writing
-	 *                                this move or reading the next move
+	 * Called whenever the model changes. Once the game is over, appends it to the
+	 * game log.
 	 */
-	private void sendAndReceive(Connect4MoveMessage move) {
+	private synchronized void record() {
+		if (gameStart == 0) {
+			gameStart = System.currentTimeMillis();
+		}
+		// the log only holds 7x6 connect 4 games
+		if (recorded || log == null || !model.isGameOver() || !model.getGeometry().isStandard()) {
+			return;
+		}
+		recorded = true;
+		String yellow = seat == 2 ? "remote" : player;
+		String red = seat == 1 ? "remote" : player;
 		try {
-			isTurn = false;
-			output.writeObject(move);
-			new Thread(() -> {
-				if (!isGameOver()) {
-					try {
-						Connect4MoveMessage nextMove = (Connect4MoveMessage) input.readObject();
-						Platform.runLater(() -> {
-							model.update(nextMove.getColumn());
-							isLoser = false;
-							isTurn = true;
-						});
-					} catch (ClassNotFoundException e) {
-						e.printStackTrace();
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-				}
-			}).start();
+			log.append(new GameRecord(yellow, red, model.getWinner(), gameStart, System.currentTimeMillis(),
+					model.getPosition()));
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-
 	}
 
 	/**
-	 * Non-threaded version of sendAndReceive() for AI players
-	 * 
-	 * @param move the move to be sent
-	 * @throws ClassNotFoundException or IOException if there is an error writing
-	 *                                this move or reading the next move
+	 * Stops the computer player's threads, if it has any, and closes the game log.
+	 * Called when this game is discarded for a new one.
 	 */
-	private void sendAndReceiveAI(Connect4MoveMessage move) {
+	public synchronized void close() {
+		if (ai != null) {
+			ai.close();
+		}
+		if (log != null) {
 			try {
-				isTurn = false;
-				output.writeObject(move);
-				if (!isGameOver()) {
-					try {
-						Connect4MoveMessage nextMove = (Connect4MoveMessage) input.readObject();
-						model.update(nextMove.getColumn());
-						isLoser = false;
-						isTurn = true;
-					} catch (ClassNotFoundException e) {
-						e.printStackTrace();
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-				}
+				log.close();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
+			log = null;
+		}
 	}
 
 	/**
@@ -198,22 +674,29 @@ public class Controller {
 	/**
 	 * Starts a server instance
 	 * 
-	 * Waits for a connection from a client, then sets the input and output streams
-	 * to the client's
+	 * Waits for a connection from a client, checks that it speaks the same
+	 * protocol, and tells it that the server moves first and the token to resume
+	 * the game with. The port stays open so the client can reconnect.
 	 * 
-	 * @param port the port to be opened for the server
+	 * @param port    the port to be opened for the server
+	 * @param isHuman whether moves are made by a human player or the computer
 	 * 
 	 * @throws IOException if there's a problem opening the server or getting the
 	 *                     connection
 	 */
-	public void startServer(int port) {
+	public void startServer(int port, boolean isHuman) {
 		try {
-			ServerSocket server = new ServerSocket(port);
-			Socket connection = server.accept();
-			output = new ObjectOutputStream(connection.getOutputStream());
-			input = new ObjectInputStream(connection.getInputStream());
+			listener = new ServerSocket(port);
+			Socket client = listener.accept();
+			connection = new Connection(client);
+			connection.handshake();
+			connection.sendStart(2, model.getGeometry());
+			connection.sendSession(newToken());
+			this.isHuman = isHuman;
+			listen(isHuman);
 			isConnected = true;
 			isTurn = true;
+			seat = 1;
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -222,9 +705,9 @@ public class Controller {
 	/**
 	 * Starts a client instance
 	 * 
-	 * Connects to the server at @param address and @param port, then set the input
-	 * and output streams to the server's, and sets the client to receive the first
-	 * move
+	 * Connects to the server at @param address and @param port, checks that it
+	 * speaks the same protocol, and finds out from the server whether this client
+	 * moves first. A computer player is then started with computerReceiveTurn().
 	 * 
 	 * @throws UnknownHostException if there's a problem connecting to the specified
 	 *                              address and port
@@ -235,19 +718,15 @@ public class Controller {
 	public void startClient(String address, int port, boolean isHuman) {
 		try {
 			Socket server = new Socket(address, port);
-			output = new ObjectOutputStream(server.getOutputStream());
-			input = new ObjectInputStream(server.getInputStream());
+			connection = new Connection(server);
+			connection.handshake();
+			seat = connection.readStart(model.getGeometry());
+			this.address = address;
+			this.port = port;
+			this.isHuman = isHuman;
+			isTurn = seat == 1;
 			isConnected = true;
-			isTurn = false;
-
-			if (isHuman) {
-				humanReceiveTurn();
-			}
-
-			else {
-				computerReceiveTurn();
-			}
-
+			listen(isHuman);
 		} catch (UnknownHostException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
@@ -255,4 +734,15 @@ public class Controller {
 		}
 	}
 
+	/**
+	 * @return a random token for a new game, never 0
+	 */
+	private static long newToken() {
+		long token;
+		do {
+			token = new SecureRandom().nextLong();
+		} while (token == 0);
+		return token;
+	}
+
 }
@@ -0,0 +1,187 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A TCP proxy for testing how networked games cope with a connection that
+ * drops mid-game.
+ *
+ * Every connection made to the proxy is passed on to the server behind it, and
+ * bytes are copied both ways until cut is called, which drops every connection
+ * through the proxy at once. Both ends see their connection fail, and anything
+ * the proxy had read but not yet written is lost, as when a network goes down.
+ * New connections are let through again straight away, so a game can reconnect
+ * through the proxy.
+ *
+ * Usage: java FaultInjectingProxy listenPort host port [cutEveryMillis]
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class FaultInjectingProxy implements Closeable {
+	private static final int BUFFER = 4096;
+
+	private final ServerSocket server;
+	private final String host;
+	private final int port;
+	// both ends of every connection through the proxy
+	private final List<Socket> open = new ArrayList<>();
+	private final AtomicInteger connections = new AtomicInteger();
+	private final AtomicInteger cuts = new AtomicInteger();
+
+	/**
+	 * @param listenPort the port to listen on, or 0 for any free port
+	 * @param host       the server connections are passed on to
+	 * @param port       the server's port
+	 */
+	public FaultInjectingProxy(int listenPort, String host, int port) throws IOException {
+		this.server = new ServerSocket(listenPort);
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 * Starts accepting connections
+	 */
+	public void start() {
+		Connection.startThread(() -> {
+			try {
+				while (true) {
+					Socket client = server.accept();
+					Socket target;
+					try {
+						target = new Socket(host, port);
+					} catch (IOException e) {
+						client.close();
+						continue;
+					}
+					synchronized (open) {
+						open.add(client);
+						open.add(target);
+					}
+					connections.incrementAndGet();
+					copy(client, target);
+					copy(target, client);
+				}
+			} catch (IOException e) {
+				if (!server.isClosed()) {
+					e.printStackTrace();
+				}
+			}
+		}, "proxy-accept");
+	}
+
+	/**
+	 * Copies everything read from @param from to @param to, and closes both once
+	 * either side ends
+	 */
+	private void copy(Socket from, Socket to) {
+		Connection.startThread(() -> {
+			byte[] buffer = new byte[BUFFER];
+			try {
+				InputStream in = from.getInputStream();
+				OutputStream out = to.getOutputStream();
+				int read;
+				while ((read = in.read(buffer)) >= 0) {
+					out.write(buffer, 0, read);
+				}
+			} catch (IOException e) {
+				// the connection was cut, or one end went away
+			}
+			close(from);
+			close(to);
+		}, "proxy-copy");
+	}
+
+	private void close(Socket socket) {
+		synchronized (open) {
+			open.remove(socket);
+		}
+		try {
+			socket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Drops every connection through the proxy
+	 *
+	 * @return how many connections were dropped
+	 */
+	public int cut() {
+		List<Socket> dropped;
+		synchronized (open) {
+			dropped = new ArrayList<>(open);
+			open.clear();
+		}
+		for (Socket socket : dropped) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (!dropped.isEmpty()) {
+			cuts.incrementAndGet();
+		}
+		return dropped.size() / 2;
+	}
+
+	/**
+	 * @return the port the proxy listens on
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * @return how many connections have been made through the proxy
+	 */
+	public int getConnections() {
+		return connections.get();
+	}
+
+	/**
+	 * @return how many times cut dropped at least one connection
+	 */
+	public int getCuts() {
+		return cuts.get();
+	}
+
+	/**
+	 * Stops accepting connections and drops the ones still open
+	 */
+	@Override
+	public void close() throws IOException {
+		server.close();
+		cut();
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 3) {
+			System.err.println("Usage: java FaultInjectingProxy listenPort host port [cutEveryMillis]");
+			return;
+		}
+		long cutEvery = args.length > 3 ? Long.parseLong(args[3]) : 0;
+		try (FaultInjectingProxy proxy = new FaultInjectingProxy(Integer.parseInt(args[0]), args[1],
+				Integer.parseInt(args[2]))) {
+			proxy.start();
+			System.out.println("Proxying port " + proxy.getPort() + " to " + args[1] + ":" + args[2]);
+			while (true) {
+				if (cutEvery > 0) {
+					Thread.sleep(cutEvery);
+					System.out.println("Cut " + proxy.cut() + " connections");
+				} else {
+					Thread.sleep(Long.MAX_VALUE);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,268 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only binary log of finished games.
+ *
+ * A log is a short file header followed by one record per game. Records are
+ * only ever added to the end of the file, each with a single write, so a log
+ * can be appended to while it is being read and a crash can at worst cut off
+ * the last record, which readers then ignore and the next writer removes. Each
+ * move is packed into a nibble, so a full game's moves take 21 bytes.
+ *
+ * File layout, all big-endian:
+ *
+ * <pre>
+ * header: int MAGIC, byte VERSION, byte columns, byte rows
+ * record: short length of the rest of the record,
+ *         long start millis, long end millis, byte winner (0 for a draw),
+ *         UTF yellow player, UTF red player,
+ *         byte move count, then two moves per byte, first move in the high nibble
+ * </pre>
+ *
+ * Usage: java GameLog file
+ *
+ * Replays every game in the log, checking that each one is legal and has the
+ * result it was recorded with, and prints a summary.
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class GameLog implements Closeable {
+	public static final int MAGIC = 0x4334474C; // "C4GL"
+	public static final int VERSION = 1;
+	public static final int HEADER_BYTES = Integer.BYTES + 3;
+
+	private final FileChannel channel;
+
+	private GameLog(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Opens the log at @param path for appending, creating it if it does not exist
+	 *
+	 * @return the opened log
+	 * @throws IOException if the file cannot be written, or is not a game log for
+	 *                     this board size
+	 */
+	public static GameLog open(Path path) throws IOException {
+		long valid = Files.exists(path) && Files.size(path) > 0 ? validLength(path) : 0;
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		if (channel.size() > valid) {
+			// drop a record cut off by a crash, so new records start where it did
+			channel.truncate(valid);
+		}
+		if (channel.size() == 0) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC).put((byte) VERSION).put((byte) BitBoard.COLUMNS).put((byte) BitBoard.ROWS);
+			header.flip();
+			write(channel, header);
+		}
+		return new GameLog(channel);
+	}
+
+	/**
+	 * Adds @param game to the end of the log
+	 */
+	public synchronized void append(GameRecord game) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeShort(0);
+		out.writeLong(game.getStartMillis());
+		out.writeLong(game.getEndMillis());
+		out.writeByte(game.getWinner());
+		out.writeUTF(game.getYellow());
+		out.writeUTF(game.getRed());
+		int count = game.getMoveCount();
+		out.writeByte(count);
+		for (int i = 0; i < count; i += 2) {
+			int high = game.getMove(i);
+			int low = i + 1 < count ? game.getMove(i + 1) : 0;
+			out.writeByte(high << 4 | low);
+		}
+		ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+		record.putShort(0, (short) (record.limit() - Short.BYTES));
+		write(channel, record);
+	}
+
+	/**
+	 * Forces every appended game out to the disk
+	 */
+	public void sync() throws IOException {
+		channel.force(false);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * @return the length of the log at @param path up to the end of its last
+	 *         complete record
+	 */
+	private static long validLength(Path path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+			readHeader(in, path);
+			long valid = HEADER_BYTES;
+			while (true) {
+				int length;
+				try {
+					length = in.readUnsignedShort();
+				} catch (EOFException e) {
+					return valid;
+				}
+				if (in.skipBytes(length) < length) {
+					return valid;
+				}
+				valid += Short.BYTES + length;
+			}
+		}
+	}
+
+	private static void readHeader(DataInputStream in, Path path) throws IOException {
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(path + " is not a game log");
+			}
+			int version = in.readUnsignedByte();
+			if (version != VERSION) {
+				throw new IOException(path + " has unsupported game log version " + version);
+			}
+			int columns = in.readUnsignedByte();
+			int rows = in.readUnsignedByte();
+			if (columns != BitBoard.COLUMNS || rows != BitBoard.ROWS) {
+				throw new IOException(path + " was recorded on a " + columns + "x" + rows + " board");
+			}
+		} catch (EOFException e) {
+			throw new IOException(path + " is not a game log", e);
+		}
+	}
+
+	/**
+	 * Opens the log at @param path for reading
+	 *
+	 * @return a reader positioned at the first game
+	 * @throws IOException if the file cannot be read, or is not a game log for
+	 *                     this board size
+	 */
+	public static Reader read(Path path) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+		try {
+			readHeader(in, path);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		return new Reader(in);
+	}
+
+	/**
+	 * Streams the games in a log one at a time, so logs of any size can be read in
+	 * constant memory
+	 */
+	public static class Reader implements Closeable {
+		private final DataInputStream in;
+		private final byte[] record;
+		private boolean truncated;
+
+		private Reader(DataInputStream in) {
+			this.in = in;
+			this.record = new byte[0xFFFF];
+		}
+
+		/**
+		 * @return the next game in the log, or null if there are no more
+		 * @throws IOException if the log cannot be read or a record is malformed
+		 */
+		public GameRecord next() throws IOException {
+			int high = in.read();
+			if (high < 0) {
+				return null;
+			}
+			int length;
+			try {
+				length = high << 8 | in.readUnsignedByte();
+				in.readFully(record, 0, length);
+			} catch (EOFException e) {
+				// a crash while the last record was being appended
+				truncated = true;
+				return null;
+			}
+			DataInputStream game = new DataInputStream(new ByteArrayInputStream(record, 0, length));
+			long start = game.readLong();
+			long end = game.readLong();
+			int winner = game.readUnsignedByte();
+			String yellow = game.readUTF();
+			String red = game.readUTF();
+			int[] moves = new int[game.readUnsignedByte()];
+			for (int i = 0; i < moves.length; i += 2) {
+				int packed = game.readUnsignedByte();
+				moves[i] = packed >> 4;
+				if (i + 1 < moves.length) {
+					moves[i + 1] = packed & 0xF;
+				}
+			}
+			return new GameRecord(yellow, red, winner, start, end, moves);
+		}
+
+		/**
+		 * @return whether the log ended partway through a record
+		 */
+		public boolean isTruncated() {
+			return truncated;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: java GameLog file");
+			System.exit(1);
+		}
+		long games = 0;
+		long moves = 0;
+		long[] results = new long[3];
+		long start = System.nanoTime();
+		try (Reader reader = read(Paths.get(args[0]))) {
+			GameRecord game;
+			while ((game = reader.next()) != null) {
+				game.replay();
+				games++;
+				moves += game.getMoveCount();
+				results[game.getWinner()]++;
+			}
+			if (reader.isTruncated()) {
+				System.out.println("The last game in the log was cut off and was skipped");
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("games %d, yellow wins %d, red wins %d, draws %d, average length %.1f moves%n", games,
+				results[1], results[2], results[0], games == 0 ? 0.0 : (double) moves / games);
+		System.out.printf("replayed in %.2f s, %.0f games/sec%n", seconds, games / seconds);
+	}
+}
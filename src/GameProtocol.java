@@ -0,0 +1,477 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary wire protocol spoken between two networked games.
+ *
+ * Every message is a frame: an unsigned 16-bit length, then a one byte frame
+ * type, then the payload. The length counts the type byte and the payload, so a
+ * reader can always skip a frame it does not understand. A move is 4 bytes on
+ * the wire.
+ *
+ * Both sides start with a HELLO carrying a magic number and the protocol
+ * version, and refuse to play if they do not match. The side that accepted the
+ * connection then sends START to tell the other side whether it moves first.
+ *
+ * A player can take back the move they just played until the other player
+ * replies to it, by sending TAKEBACK with the number of moves on the board. The
+ * other player takes the move back and sends the same frame back to confirm. If
+ * they have already moved, the count no longer matches and the request is
+ * ignored; their move is the answer.
+ *
+ * A spectator sends WATCH instead of HELLO, naming the game to watch. The
+ * server answers with its HELLO and a SYNC of the board so far, then passes on
+ * every MOVE, every TAKEBACK once it is confirmed, and a RESIGN saying who
+ * resigned. A spectator that falls behind is sent a fresh SYNC in place of
+ * the frames it missed. The server hangs up once the game is over.
+ *
+ * A game between two players can outlive its connection. The side that
+ * accepted it follows START with SESSION, a random token for the game, and
+ * numbers every MOVE with the number of moves on the board once it is played,
+ * so a move that arrives out of turn can be told apart and dropped. If the
+ * connection fails, the other side connects again and sends HELLO then RESUME
+ * with the token and every move on its board. The side that accepted picks the
+ * board both will play on, which is the longer of the two if one leads on from
+ * the other and its own otherwise, and answers with RESUME: how many of the
+ * moves sent it can keep, then only the moves that come after them. Neither
+ * frame is longer than one full board, however long the connection was down.
+ *
+ * <pre>
+ * HELLO   int magic, byte version
+ * START   byte seat (1 moves first, 2 moves second),
+ *         optionally byte columns, byte rows, byte connect (7x6 connect 4 if left out)
+ * MOVE    byte column, optionally byte number of moves once it is played
+ * RESIGN  (empty), or to spectators byte seat that resigned
+ * REMATCH (empty)
+ * SYNC    byte move count, then one byte per move with the column played
+ * TAKEBACK byte move count, including the move to take back
+ * WATCH   int magic, byte version, int game (0 for the newest game)
+ * SESSION long token
+ * RESUME  long token, byte moves to keep, byte move count, then one byte per move
+ * </pre>
+ *
+ * Sending is thread-safe. Reading is not, and is meant to be done by a single
+ * thread per connection.
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class GameProtocol {
+	public static final int MAGIC = 0x43345750; // "C4WP"
+	public static final int VERSION = 1;
+
+	// frame types
+	public static final int HELLO = 1;
+	public static final int START = 2;
+	public static final int MOVE = 3;
+	public static final int RESIGN = 4;
+	public static final int REMATCH = 5;
+	public static final int SYNC = 6;
+	public static final int TAKEBACK = 7;
+	public static final int WATCH = 8;
+	public static final int SESSION = 9;
+	public static final int RESUME = 10;
+
+	private static final int MAX_FRAME = 0xFFFF;
+
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	private final byte[] payload;
+	private int type;
+	private int length;
+
+	/**
+	 * @param in  the stream frames are read from
+	 * @param out the stream frames are written to
+	 */
+	public GameProtocol(InputStream in, OutputStream out) {
+		this.in = new DataInputStream(new BufferedInputStream(in));
+		this.out = new DataOutputStream(new BufferedOutputStream(out));
+		this.payload = new byte[MAX_FRAME];
+	}
+
+	/**
+	 * Sends HELLO and checks the HELLO sent back by the other side
+	 *
+	 * @throws IOException if the other side is not speaking this protocol, or
+	 *                     speaks a different version of it
+	 */
+	public void handshake() throws IOException {
+		synchronized (out) {
+			out.writeShort(6);
+			out.writeByte(HELLO);
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.flush();
+		}
+		if (read() != HELLO || length != 5 || readInt(0) != MAGIC) {
+			throw new IOException("Other side is not a Connect4 game");
+		}
+		if (payload[4] != VERSION) {
+			throw new IOException("Other side speaks protocol version " + payload[4] + ", expected " + VERSION);
+		}
+	}
+
+	/**
+	 * Asks a server to let this side watch a game instead of playing, and checks
+	 * the HELLO it sends back. Frames about the game can then be read, starting
+	 * with a SYNC of the board so far.
+	 *
+	 * @param game the number of the game to watch, or 0 for the newest one
+	 * @throws IOException if the other side is not a Connect4 server speaking this
+	 *                     version of the protocol
+	 */
+	public void watch(int game) throws IOException {
+		synchronized (out) {
+			out.writeShort(10);
+			out.writeByte(WATCH);
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeInt(game);
+			out.flush();
+		}
+		if (read() != HELLO || length != 5 || readInt(0) != MAGIC || payload[4] != VERSION) {
+			throw new IOException("Other side is not a Connect4 server");
+		}
+	}
+
+	/**
+	 * Tells the other side which seat it has
+	 *
+	 * @param seat 1 if the other side moves first, 2 if it moves second
+	 */
+	public void sendStart(int seat) throws IOException {
+		sendByte(START, seat);
+	}
+
+	/**
+	 * Tells the other side which seat it has and what board the game is played on
+	 *
+	 * @param seat     1 if the other side moves first, 2 if it moves second
+	 * @param geometry the board
+	 */
+	public void sendStart(int seat, Geometry geometry) throws IOException {
+		if (geometry.isStandard()) {
+			sendStart(seat);
+			return;
+		}
+		synchronized (out) {
+			out.writeShort(5);
+			out.writeByte(START);
+			out.writeByte(seat);
+			out.writeByte(geometry.getColumns());
+			out.writeByte(geometry.getRows());
+			out.writeByte(geometry.getConnect());
+			out.flush();
+		}
+	}
+
+	/**
+	 * Sends a move in @param col
+	 */
+	public void sendMove(int col) throws IOException {
+		sendByte(MOVE, col);
+	}
+
+	/**
+	 * Sends a move in @param col, numbered so the other side can drop it if it
+	 * arrives out of turn
+	 *
+	 * @param number the number of moves on the board once it is played
+	 */
+	public void sendMove(int col, int number) throws IOException {
+		synchronized (out) {
+			out.writeShort(3);
+			out.writeByte(MOVE);
+			out.writeByte(col);
+			out.writeByte(number);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Asks to take back the last move, or confirms that it was taken back
+	 *
+	 * @param moves the number of moves on the board, including the move to take
+	 *              back
+	 */
+	public void sendTakeBack(int moves) throws IOException {
+		sendByte(TAKEBACK, moves);
+	}
+
+	public void sendResign() throws IOException {
+		sendEmpty(RESIGN);
+	}
+
+	public void sendRematch() throws IOException {
+		sendEmpty(REMATCH);
+	}
+
+	/**
+	 * Sends every move played so far, so the other side can rebuild the board
+	 *
+	 * @param moves the columns played, in order
+	 * @param count how many of them to send
+	 */
+	public void sendSync(int[] moves, int count) throws IOException {
+		synchronized (out) {
+			out.writeShort(2 + count);
+			out.writeByte(SYNC);
+			out.writeByte(count);
+			for (int i = 0; i < count; i++) {
+				out.writeByte(moves[i]);
+			}
+			out.flush();
+		}
+	}
+
+	/**
+	 * Gives the other side the token it resumes the game with if the connection
+	 * fails
+	 */
+	public void sendSession(long token) throws IOException {
+		synchronized (out) {
+			out.writeShort(9);
+			out.writeByte(SESSION);
+			out.writeLong(token);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Asks to resume a game after the connection failed, or answers such a
+	 * request
+	 *
+	 * @param token the game's token from SESSION
+	 * @param keep  how many moves at the start of the board stay as they are
+	 * @param moves the columns of the moves that follow them, in order
+	 * @param count how many of them to send
+	 */
+	public void sendResume(long token, int keep, int[] moves, int count) throws IOException {
+		synchronized (out) {
+			out.writeShort(11 + count);
+			out.writeByte(RESUME);
+			out.writeLong(token);
+			out.writeByte(keep);
+			out.writeByte(count);
+			for (int i = 0; i < count; i++) {
+				out.writeByte(moves[i]);
+			}
+			out.flush();
+		}
+	}
+
+	private void sendByte(int frameType, int value) throws IOException {
+		synchronized (out) {
+			out.writeShort(2);
+			out.writeByte(frameType);
+			out.writeByte(value);
+			out.flush();
+		}
+	}
+
+	private void sendEmpty(int frameType) throws IOException {
+		synchronized (out) {
+			out.writeShort(1);
+			out.writeByte(frameType);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Blocks until the next frame arrives. Its contents can then be read with the
+	 * getters for its type.
+	 *
+	 * @return the frame type
+	 * @throws EOFException if the other side closed the connection
+	 * @throws IOException  if the frame is malformed
+	 */
+	public int read() throws IOException {
+		int frameLength = in.readUnsignedShort();
+		if (frameLength == 0) {
+			throw new IOException("Empty frame");
+		}
+		type = in.readUnsignedByte();
+		length = frameLength - 1;
+		in.readFully(payload, 0, length);
+		if ((type == START || type == MOVE || type == SYNC || type == TAKEBACK) && length < 1
+				|| type == SYNC && length < 1 + (payload[0] & 0xFF) || type == SESSION && length < 8
+				|| type == RESUME && (length < 10 || length < 10 + (payload[9] & 0xFF))) {
+			throw new IOException("Truncated frame of type " + type);
+		}
+		return type;
+	}
+
+	/**
+	 * Blocks until the next move arrives
+	 *
+	 * @return the column that was played
+	 * @throws IOException if the connection fails or a frame other than a move
+	 *                     arrives
+	 */
+	public int readMove() throws IOException {
+		if (read() != MOVE) {
+			throw new IOException("Expected a move, got frame type " + type);
+		}
+		return getColumn();
+	}
+
+	/**
+	 * @return the column of the MOVE frame that was just read, which the receiver
+	 *         must check is on its board
+	 */
+	public int getColumn() {
+		return payload[0];
+	}
+
+	/**
+	 * @return the number of moves on the board once the MOVE frame that was just
+	 *         read is played, or 0 if the sender did not number it
+	 */
+	public int getMoveNumber() {
+		return length < 2 ? 0 : payload[1] & 0xFF;
+	}
+
+	/**
+	 * @return the seat of the START frame that was just read, or of the player who
+	 *         resigned in a RESIGN sent to a spectator (0 if it does not say)
+	 */
+	public int getSeat() {
+		return type == RESIGN && length == 0 ? 0 : payload[0];
+	}
+
+	/**
+	 * @return the move count of the TAKEBACK frame that was just read
+	 */
+	public int getMoveCount() {
+		return payload[0] & 0xFF;
+	}
+
+	/**
+	 * @return the board of the START frame that was just read
+	 * @throws IOException if the board it describes is not valid
+	 */
+	public Geometry getGeometry() throws IOException {
+		if (length < 4) {
+			return Geometry.STANDARD;
+		}
+		try {
+			return new Geometry(payload[1], payload[2], payload[3]);
+		} catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return the moves of the SYNC frame that was just read
+	 */
+	public int[] getSyncMoves() {
+		int[] moves = new int[payload[0] & 0xFF];
+		for (int i = 0; i < moves.length; i++) {
+			moves[i] = payload[i + 1];
+		}
+		return moves;
+	}
+
+	/**
+	 * @return the token of the SESSION or RESUME frame that was just read
+	 */
+	public long getSession() {
+		return (long) readInt(0) << 32 | readInt(4) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @return how many moves the RESUME frame that was just read keeps
+	 */
+	public int getResumeKeep() {
+		return payload[8] & 0xFF;
+	}
+
+	/**
+	 * @return the moves of the RESUME frame that was just read, which follow the
+	 *         ones it keeps
+	 */
+	public int[] getResumeMoves() {
+		int[] moves = new int[payload[9] & 0xFF];
+		for (int i = 0; i < moves.length; i++) {
+			moves[i] = payload[i + 10];
+		}
+		return moves;
+	}
+
+	/**
+	 * @return a HELLO frame, ready to be written to a channel
+	 */
+	public static ByteBuffer helloFrame() {
+		ByteBuffer frame = ByteBuffer.allocate(8);
+		frame.putShort((short) 6).put((byte) HELLO).putInt(MAGIC).put((byte) VERSION);
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * @return a frame of @param frameType carrying the single byte @param value,
+	 *         ready to be written to a channel
+	 */
+	public static ByteBuffer byteFrame(int frameType, int value) {
+		ByteBuffer frame = ByteBuffer.allocate(4);
+		frame.putShort((short) 2).put((byte) frameType).put((byte) value);
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * @return a frame of @param frameType with no payload, ready to be written to a
+	 *         channel
+	 */
+	public static ByteBuffer emptyFrame(int frameType) {
+		ByteBuffer frame = ByteBuffer.allocate(3);
+		frame.putShort((short) 1).put((byte) frameType);
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * @return a SYNC frame of the first @param count moves in @param moves, ready
+	 *         to be written to a channel
+	 */
+	public static ByteBuffer syncFrame(int[] moves, int count) {
+		ByteBuffer frame = ByteBuffer.allocate(4 + count);
+		frame.putShort((short) (2 + count)).put((byte) SYNC).put((byte) count);
+		for (int i = 0; i < count; i++) {
+			frame.put((byte) moves[i]);
+		}
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * @param hello  a buffer positioned at the start of a HELLO frame's payload
+	 * @param length the length of the payload
+	 * @return whether it has the right magic number and version
+	 */
+	public static boolean isValidHello(ByteBuffer hello, int length) {
+		return length == 5 && hello.getInt(hello.position()) == MAGIC && hello.get(hello.position() + 4) == VERSION;
+	}
+
+	/**
+	 * @param watch  a buffer positioned at the start of a WATCH frame's payload
+	 * @param length the length of the payload
+	 * @return whether it has the right magic number and version and names a game
+	 */
+	public static boolean isValidWatch(ByteBuffer watch, int length) {
+		return length == 9 && isValidHello(watch, 5);
+	}
+
+	private int readInt(int offset) {
+		return (payload[offset] & 0xFF) << 24 | (payload[offset + 1] & 0xFF) << 16 | (payload[offset + 2] & 0xFF) << 8
+				| (payload[offset + 3] & 0xFF);
+	}
+}
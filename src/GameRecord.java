@@ -0,0 +1,103 @@
+/**
+ * One finished game as stored in a GameLog: who played each side, who won,
+ * when it was played and every move in order.
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class GameRecord {
+	private final String yellow;
+	private final String red;
+	private final int winner;
+	private final long startMillis;
+	private final long endMillis;
+	private final int[] moves;
+
+	/**
+	 * @param yellow      who played yellow, the side that moves first
+	 * @param red         who played red
+	 * @param winner      the color that won, or 0 for a draw
+	 * @param startMillis when the first move was played
+	 * @param endMillis   when the game ended
+	 * @param moves       the column of every move, in order
+	 */
+	public GameRecord(String yellow, String red, int winner, long startMillis, long endMillis, int[] moves) {
+		this.yellow = yellow;
+		this.red = red;
+		this.winner = winner;
+		this.startMillis = startMillis;
+		this.endMillis = endMillis;
+		this.moves = moves;
+	}
+
+	/**
+	 * Records the game played on @param board
+	 */
+	public GameRecord(String yellow, String red, int winner, long startMillis, long endMillis, BitBoard board) {
+		this(yellow, red, winner, startMillis, endMillis, new int[board.getMoves()]);
+		for (int i = 0; i < moves.length; i++) {
+			moves[i] = board.getMove(i);
+		}
+	}
+
+	public String getYellow() {
+		return yellow;
+	}
+
+	public String getRed() {
+		return red;
+	}
+
+	public int getWinner() {
+		return winner;
+	}
+
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	public long getEndMillis() {
+		return endMillis;
+	}
+
+	/**
+	 * @return the number of moves played
+	 */
+	public int getMoveCount() {
+		return moves.length;
+	}
+
+	/**
+	 * @param i the index of a move, with 0 being the first move of the game
+	 * @return the column the move was played in
+	 */
+	public int getMove(int i) {
+		return moves[i];
+	}
+
+	/**
+	 * Plays the game back from the start
+	 *
+	 * @return the board as it was when the game ended
+	 * @throws IllegalStateException if a move is not legal, or the recorded result
+	 *                               does not match the board
+	 */
+	public BitBoard replay() {
+		BitBoard board = new BitBoard();
+		int won = 0;
+		for (int col : moves) {
+			if (won != 0 || col < 0 || col >= BitBoard.COLUMNS || !board.canPlay(col)) {
+				throw new IllegalStateException("Illegal move " + col + " after " + board.getMoves() + " moves");
+			}
+			int color = board.getCurrentColor();
+			board.play(col);
+			if (board.isLastMoveWin()) {
+				won = color;
+			}
+		}
+		if (won != winner) {
+			throw new IllegalStateException("Recorded winner " + winner + " but the board was won by " + won);
+		}
+		return board;
+	}
+}
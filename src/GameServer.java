@@ -0,0 +1,643 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Dedicated server that hosts many games at once on a single thread.
+ *
+ * Every connection is a non-blocking channel on one Selector. Clients connect
+ * exactly as they would to another player's game: they exchange HELLO frames,
+ * then wait in a lobby until a second client arrives. The two are paired into a
+ * game with its own Model, sent START frames telling them who moves first, and
+ * from then on every move is checked against the Model before it is passed on
+ * to the opponent. Requests to take back a move are passed on too, and the
+ * move comes off the server's board once the opponent confirms it. When a game
+ * ends, or either player leaves, both connections are closed.
+ *
+ * Any number of spectators can watch a game, by sending WATCH instead of HELLO.
+ * Every frame for them is encoded once into the game's log, an array of bytes
+ * that is never changed once written, and each spectator only keeps a
+ * read-only view of the log and how far into it it has been sent, so passing a
+ * move on to thousands of spectators copies and allocates nothing. A spectator
+ * that falls more than a few frames behind, once its socket's small send
+ * buffer is full, skips the frames it has missed and is sent a SYNC snapshot
+ * of the board instead, shared by every spectator resynced at that point of
+ * the game. Slow spectators therefore hold no more than a few frames of server
+ * memory each and never hold up the players.
+ *
+ * Every few seconds the server prints the number of open games, waiting
+ * clients, moves per second, and how long moves spent in the server between
+ * being read and being passed on, along with the number of spectators, the
+ * frames sent to them per second and how many were resynced.
+ *
+ * Usage: java GameServer [port] [reportSeconds]
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class GameServer {
+	private static final int MAX_FRAME = 64;
+	// every frame in a spectator log is a MOVE, TAKEBACK or RESIGN of this length
+	private static final int FRAME = 4;
+	private static final int LOG_BYTES = 256 * FRAME;
+	// a spectator this many frames behind is resynced
+	private static final int BACKLOG_FRAMES = 8;
+	// kernel send buffer of a spectator's socket, kept small so that one that
+	// stops reading is noticed after a few kilobytes rather than megabytes
+	private static final int SPECTATOR_SEND_BUFFER = 4096;
+
+	private final Selector selector;
+	private final ServerSocketChannel listener;
+	private final ArrayDeque<Session> lobby;
+	// open games by number
+	private final Map<Integer, Game> games;
+	private final long reportNanos;
+	private long lastReport;
+
+	private int openGames;
+	private long totalGames;
+	private long moves;
+	private int spectators;
+	private long spectatorFrames;
+	private long resyncs;
+	// move latency histogram, bucket i counts latencies below 2^i microseconds
+	private final long[] latencies;
+
+	/**
+	 * One client connection
+	 */
+	private static class Session {
+		final SocketChannel channel;
+		final ByteBuffer in = ByteBuffer.allocate(MAX_FRAME + 2);
+		final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+		// when each move in out was read from the opponent, 0 for other frames
+		final ArrayDeque<Long> readTimes = new ArrayDeque<>();
+		boolean greeted;
+		boolean closing;
+		Game game;
+		int seat;
+
+		// the game this session is watching, if it is a spectator
+		Game watching;
+		int spectatorIndex;
+		// the log it is being sent and how far it has got through it
+		byte[] log;
+		ByteBuffer view;
+		// a snapshot to send before going on with the log, or null
+		ByteBuffer snapshot;
+		// whether it has fallen too far behind and should be sent a snapshot
+		boolean resync;
+
+		Session(SocketChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	/**
+	 * Two paired sessions and the board they are playing on
+	 */
+	private static class Game {
+		final int number;
+		final Model model = new Model();
+		final Session[] players = new Session[2];
+		// index into players of whoever moves next
+		int toMove;
+		// the move count of a TAKEBACK waiting for the player to move to confirm it,
+		// or -1
+		int takeBack = -1;
+
+		final ArrayList<Session> spectators = new ArrayList<>();
+		// the frames sent to spectators, up to end. A full log is replaced by a new
+		// one, never written to again.
+		byte[] log = new byte[LOG_BYTES];
+		int end;
+		// SYNC of the board and the end of the log when it was taken, or null once a
+		// frame changing the board has been added
+		ByteBuffer snapshot;
+		int snapshotEnd;
+
+		Game(int number) {
+			this.number = number;
+		}
+
+		ByteBuffer snapshot() {
+			if (snapshot == null) {
+				int[] moves = new int[model.getMoveCount()];
+				for (int i = 0; i < moves.length; i++) {
+					moves[i] = model.getMove(i);
+				}
+				snapshot = GameProtocol.syncFrame(moves, moves.length).asReadOnlyBuffer();
+				snapshotEnd = end;
+			}
+			return snapshot;
+		}
+	}
+
+	/**
+	 * @param port         the port to listen on, or 0 for any free port
+	 * @param reportPeriod how often to print metrics, in seconds, or 0 for never
+	 */
+	public GameServer(int port, int reportPeriod) throws IOException {
+		selector = Selector.open();
+		listener = ServerSocketChannel.open();
+		listener.bind(new InetSocketAddress(port), 1024);
+		listener.configureBlocking(false);
+		listener.register(selector, SelectionKey.OP_ACCEPT);
+		lobby = new ArrayDeque<>();
+		games = new HashMap<>();
+		latencies = new long[32];
+		reportNanos = reportPeriod * 1_000_000_000L;
+		lastReport = System.nanoTime();
+	}
+
+	/**
+	 * @return the port the server is listening on
+	 */
+	public int getPort() {
+		return listener.socket().getLocalPort();
+	}
+
+	/**
+	 * Runs the server on the calling thread until it is interrupted
+	 */
+	public void run() throws IOException {
+		while (!Thread.currentThread().isInterrupted()) {
+			step(1000);
+		}
+		close();
+	}
+
+	/**
+	 * Stops listening and drops every connection
+	 */
+	public void close() throws IOException {
+		for (SelectionKey key : selector.keys()) {
+			key.channel().close();
+		}
+		selector.close();
+		listener.close();
+	}
+
+	/**
+	 * Waits up to @param timeoutMillis for connections to become ready, then
+	 * handles every one that is
+	 */
+	void step(long timeoutMillis) throws IOException {
+		selector.select(timeoutMillis);
+		long now = System.nanoTime();
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while (keys.hasNext()) {
+			SelectionKey key = keys.next();
+			keys.remove();
+			// closed earlier in this batch, such as the opponent of a player whose
+			// move just ended the game
+			if (!key.isValid()) {
+				continue;
+			}
+			try {
+				if (key.isAcceptable()) {
+					accept();
+				} else {
+					Session session = (Session) key.attachment();
+					if (key.isReadable()) {
+						read(session, now);
+					}
+					if (key.isValid() && key.isWritable()) {
+						flush(session);
+					}
+				}
+			} catch (IOException | CancelledKeyException e) {
+				// one broken session must not take down every other game
+				if (key.attachment() != null) {
+					disconnect((Session) key.attachment());
+				}
+			}
+		}
+		if (reportNanos > 0 && now - lastReport >= reportNanos) {
+			report(now);
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = listener.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			Session session = new Session(channel);
+			channel.register(selector, SelectionKey.OP_READ, session);
+			send(session, GameProtocol.helloFrame(), 0);
+		}
+	}
+
+	/**
+	 * Reads whatever has arrived on @param session and handles every complete
+	 * frame in it
+	 */
+	private void read(Session session, long now) throws IOException {
+		if (session.channel.read(session.in) < 0) {
+			disconnect(session);
+			return;
+		}
+		ByteBuffer in = session.in;
+		in.flip();
+		while (in.remaining() >= 2) {
+			int length = in.getShort(in.position()) & 0xFFFF;
+			if (length == 0 || length > MAX_FRAME) {
+				throw new IOException("Bad frame length " + length);
+			}
+			if (in.remaining() < 2 + length) {
+				break;
+			}
+			int start = in.position() + 2;
+			in.position(start + length);
+			handle(session, in.get(start), in, start + 1, length - 1, now);
+			if (!session.channel.isOpen()) {
+				return;
+			}
+		}
+		in.compact();
+	}
+
+	/**
+	 * Handles one frame from @param session, whose payload starts at @param offset
+	 * in @param in
+	 */
+	private void handle(Session session, int type, ByteBuffer in, int offset, int length, long now)
+			throws IOException {
+		if (!session.greeted) {
+			ByteBuffer hello = in.duplicate();
+			hello.position(offset);
+			if (type == GameProtocol.WATCH && GameProtocol.isValidWatch(hello, length)) {
+				session.greeted = true;
+				watch(session, in.getInt(offset + 5));
+				return;
+			}
+			if (type != GameProtocol.HELLO || !GameProtocol.isValidHello(hello, length)) {
+				throw new IOException("Client did not say hello");
+			}
+			session.greeted = true;
+			join(session);
+			return;
+		}
+		if (session.watching != null) {
+			// spectators have nothing to say
+			return;
+		}
+
+		Game game = session.game;
+		if (game == null) {
+			throw new IOException("Client sent frame " + type + " before its game started");
+		}
+		Session opponent = game.players[1 - session.seat];
+		// a move's number is not passed on, since the server checks whose turn it is
+		if (type == GameProtocol.MOVE && length >= 1) {
+			int col = in.get(offset);
+			if (game.players[game.toMove] != session || col < 0 || col >= BitBoard.COLUMNS
+					|| game.model.update(col).getColor() == 0) {
+				throw new IOException("Illegal move " + col);
+			}
+			game.toMove = 1 - game.toMove;
+			game.takeBack = -1;
+			moves++;
+			send(opponent, GameProtocol.byteFrame(GameProtocol.MOVE, col), now);
+			broadcast(game, GameProtocol.MOVE, col);
+			if (game.model.isGameOver()) {
+				end(game);
+			}
+		} else if (type == GameProtocol.TAKEBACK && length == 1) {
+			int count = in.get(offset) & 0xFF;
+			// otherwise a move crossed the request and already answered it
+			if (count == 0 || count != game.model.getMoveCount()) {
+				return;
+			}
+			if (game.players[game.toMove] == opponent) {
+				// the player who just moved asks to take it back
+				game.takeBack = count;
+				send(opponent, GameProtocol.byteFrame(GameProtocol.TAKEBACK, count), 0);
+			} else if (game.takeBack == count) {
+				// and the player to move confirms
+				game.model.undo();
+				game.toMove = 1 - game.toMove;
+				game.takeBack = -1;
+				send(opponent, GameProtocol.byteFrame(GameProtocol.TAKEBACK, count), 0);
+				broadcast(game, GameProtocol.TAKEBACK, count);
+			}
+		} else if (type == GameProtocol.RESIGN) {
+			send(opponent, GameProtocol.emptyFrame(GameProtocol.RESIGN), 0);
+			broadcast(game, GameProtocol.RESIGN, session.seat + 1);
+			end(game);
+		} else {
+			throw new IOException("Unexpected frame " + type);
+		}
+	}
+
+	/**
+	 * Puts @param session in the lobby, or starts a game with it if another
+	 * client is already waiting
+	 */
+	private void join(Session session) throws IOException {
+		Session waiting = lobby.poll();
+		if (waiting == null) {
+			lobby.add(session);
+			return;
+		}
+		Game game = new Game((int) ++totalGames);
+		game.players[0] = waiting;
+		game.players[1] = session;
+		for (int seat = 0; seat < 2; seat++) {
+			game.players[seat].game = game;
+			game.players[seat].seat = seat;
+			send(game.players[seat], GameProtocol.byteFrame(GameProtocol.START, seat + 1), 0);
+		}
+		games.put(game.number, game);
+		openGames++;
+	}
+
+	/**
+	 * Makes @param session a spectator of game number @param number, or of the
+	 * newest game if it is 0, starting with a snapshot of the board
+	 *
+	 * @throws IOException if there is no such game being played
+	 */
+	private void watch(Session session, int number) throws IOException {
+		Game game = games.get(number == 0 ? (int) totalGames : number);
+		if (game == null) {
+			throw new IOException("No game " + number + " to watch");
+		}
+		session.channel.setOption(StandardSocketOptions.SO_SNDBUF, SPECTATOR_SEND_BUFFER);
+		session.watching = game;
+		session.spectatorIndex = game.spectators.size();
+		game.spectators.add(session);
+		spectators++;
+		resync(session, game);
+		flush(session);
+	}
+
+	/**
+	 * Adds a frame of @param type carrying @param value to @param game's log, and
+	 * sends it on to every spectator as far as their sockets will take it
+	 */
+	private void broadcast(Game game, int type, int value) {
+		if (game.end == game.log.length) {
+			// spectators still reading the old log are resynced when they get to its end
+			game.log = new byte[LOG_BYTES];
+			game.end = 0;
+			game.snapshot = null;
+		}
+		if (type == GameProtocol.RESIGN) {
+			// taken before the RESIGN goes in, so spectators resynced once the game
+			// is over are still told how it ended
+			game.snapshot();
+		} else {
+			game.snapshot = null;
+		}
+		byte[] log = game.log;
+		log[game.end] = 0;
+		log[game.end + 1] = FRAME - 2;
+		log[game.end + 2] = (byte) type;
+		log[game.end + 3] = (byte) value;
+		game.end += FRAME;
+		// backwards, since a spectator that fails is swapped out for the last one
+		for (int i = game.spectators.size() - 1; i >= 0; i--) {
+			Session spectator = game.spectators.get(i);
+			if (spectator.log == log && game.end - spectator.view.position() > BACKLOG_FRAMES * FRAME) {
+				spectator.resync = true;
+			}
+			spectatorFrames++;
+			try {
+				flush(spectator);
+			} catch (IOException e) {
+				close(spectator);
+			}
+		}
+	}
+
+	/**
+	 * Points @param session at a snapshot of @param game and the log from where the
+	 * snapshot was taken
+	 */
+	private static void resync(Session session, Game game) {
+		session.snapshot = game.snapshot().duplicate();
+		follow(session, game, game.snapshotEnd);
+		session.resync = false;
+	}
+
+	private static void follow(Session session, Game game, int position) {
+		session.log = game.log;
+		session.view = ByteBuffer.wrap(game.log).asReadOnlyBuffer();
+		session.view.position(position);
+	}
+
+	/**
+	 * Takes @param session off the list of spectators of the game it is watching
+	 */
+	private void unwatch(Session session) {
+		ArrayList<Session> list = session.watching.spectators;
+		Session last = list.remove(list.size() - 1);
+		if (last != session) {
+			list.set(session.spectatorIndex, last);
+			last.spectatorIndex = session.spectatorIndex;
+		}
+		session.watching = null;
+		spectators--;
+	}
+
+	/**
+	 * Closes both players' connections once everything queued for them is sent
+	 */
+	private void end(Game game) throws IOException {
+		openGames--;
+		games.remove(game.number);
+		for (int i = game.spectators.size() - 1; i >= 0; i--) {
+			Session spectator = game.spectators.get(i);
+			spectator.closing = true;
+			try {
+				flush(spectator);
+			} catch (IOException e) {
+				close(spectator);
+			}
+		}
+		for (Session player : game.players) {
+			player.game = null;
+			player.closing = true;
+			if (player.channel.isOpen()) {
+				flush(player);
+			}
+		}
+	}
+
+	/**
+	 * Drops @param session, and ends its game by telling the opponent it resigned
+	 */
+	private void disconnect(Session session) {
+		lobby.remove(session);
+		Game game = session.game;
+		close(session);
+		if (game != null) {
+			Session opponent = game.players[1 - session.seat];
+			broadcast(game, GameProtocol.RESIGN, session.seat + 1);
+			try {
+				send(opponent, GameProtocol.emptyFrame(GameProtocol.RESIGN), 0);
+				end(game);
+			} catch (IOException e) {
+				close(opponent);
+			}
+		}
+	}
+
+	private void close(Session session) {
+		session.game = null;
+		if (session.watching != null) {
+			unwatch(session);
+		}
+		try {
+			session.channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Queues @param frame for @param session and tries to write it right away
+	 *
+	 * @param readAt when the move being passed on was read, or 0 if this is not a
+	 *               move
+	 */
+	private void send(Session session, ByteBuffer frame, long readAt) throws IOException {
+		session.out.add(frame);
+		session.readTimes.add(readAt);
+		flush(session);
+	}
+
+	/**
+	 * Writes as much of @param session's queue as the socket will take, and
+	 * watches for the socket becoming writable again if it could not take it all
+	 */
+	private void flush(Session session) throws IOException {
+		if (!session.channel.isOpen()) {
+			return;
+		}
+		while (!session.out.isEmpty()) {
+			ByteBuffer frame = session.out.peek();
+			session.channel.write(frame);
+			if (frame.hasRemaining()) {
+				session.channel.keyFor(selector).interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+			session.out.poll();
+			long readAt = session.readTimes.poll();
+			if (readAt != 0) {
+				long micros = (System.nanoTime() - readAt) / 1000;
+				latencies[Math.min(64 - Long.numberOfLeadingZeros(micros), latencies.length - 1)]++;
+			}
+		}
+		if (session.watching != null && !flushLog(session)) {
+			session.channel.keyFor(selector).interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			return;
+		}
+		if (session.closing) {
+			close(session);
+		} else {
+			session.channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	/**
+	 * Writes as much of the game's log as spectator @param session has not been
+	 * sent yet. One that has fallen behind, or is still on a log that has been
+	 * replaced, first finishes the frame it is part way through and then goes on
+	 * from a snapshot.
+	 *
+	 * @return whether it has been sent everything
+	 */
+	private boolean flushLog(Session session) throws IOException {
+		Game game = session.watching;
+		while (true) {
+			if (session.snapshot != null) {
+				if (session.resync && session.snapshot.position() == 0) {
+					// a snapshot that has not started going out is simply replaced
+					resync(session, game);
+				}
+				session.channel.write(session.snapshot);
+				if (session.snapshot.hasRemaining()) {
+					return false;
+				}
+				session.snapshot = null;
+			}
+			ByteBuffer view = session.view;
+			if (session.log == game.log && !session.resync) {
+				view.limit(game.end);
+				session.channel.write(view);
+				return !view.hasRemaining();
+			}
+			int boundary = (view.position() + FRAME - 1) / FRAME * FRAME;
+			if (view.position() < boundary) {
+				view.limit(boundary);
+				session.channel.write(view);
+				if (view.hasRemaining()) {
+					return false;
+				}
+			}
+			if (session.resync || view.position() < session.log.length) {
+				resync(session, game);
+				resyncs++;
+			} else {
+				// sent the whole of the old log, so it carries on at the start of the new one
+				follow(session, game, 0);
+			}
+		}
+	}
+
+	private void report(long now) {
+		double seconds = (now - lastReport) / 1e9;
+		System.out.printf(
+				"games open %d, total %d, waiting %d, moves/sec %.1f, move latency p50 %s p99 %s, spectators %d, spectator frames/sec %.0f, resyncs %d%n",
+				openGames, totalGames, lobby.size(), moves / seconds, percentile(0.5), percentile(0.99), spectators,
+				spectatorFrames / seconds, resyncs);
+		moves = 0;
+		spectatorFrames = 0;
+		java.util.Arrays.fill(latencies, 0);
+		lastReport = now;
+	}
+
+	/**
+	 * @return the upper bound of the histogram bucket that holds the @param
+	 *         fraction percentile of move latencies
+	 */
+	private String percentile(double fraction) {
+		long total = 0;
+		for (long count : latencies) {
+			total += count;
+		}
+		if (total == 0) {
+			return "-";
+		}
+		long seen = 0;
+		for (int i = 0; i < latencies.length; i++) {
+			seen += latencies[i];
+			if (seen >= fraction * total) {
+				return "<" + (1L << i) + "us";
+			}
+		}
+		return "-";
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+		int reportSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		GameServer server = new GameServer(port, reportSeconds);
+		System.out.println("Connect 4 server listening on port " + server.getPort());
+		server.run();
+	}
+}
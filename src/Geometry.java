@@ -0,0 +1,116 @@
+/**
+ * The shape of a game: how many columns and rows the board has, and how many
+ * discs in a line win.
+ *
+ * The standard 7x6 connect 4 is played on BitBoard, which the computer players
+ * search. Every other geometry is played on a GridBoard.
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class Geometry {
+	public static final Geometry STANDARD = new Geometry(BitBoard.COLUMNS, BitBoard.ROWS, 4);
+	// columns are packed into nibbles by GameLog and sent as bytes by GameProtocol
+	public static final int MAX_SIZE = 15;
+
+	private final int columns;
+	private final int rows;
+	private final int connect;
+
+	/**
+	 * @param columns how many columns the board has
+	 * @param rows    how many rows the board has
+	 * @param connect how many discs in a line win
+	 * @throws IllegalArgumentException if the board is too small or too large, or
+	 *                                  a line of @param connect would not fit on it
+	 */
+	public Geometry(int columns, int rows, int connect) {
+		if (columns < 1 || columns > MAX_SIZE || rows < 1 || rows > MAX_SIZE) {
+			throw new IllegalArgumentException("Boards can be 1 to " + MAX_SIZE + " cells across, got " + columns
+					+ "x" + rows);
+		}
+		if (connect < 2 || connect > Math.max(columns, rows)) {
+			throw new IllegalArgumentException("A line of " + connect + " does not fit on a " + columns + "x" + rows
+					+ " board");
+		}
+		this.columns = columns;
+		this.rows = rows;
+		this.connect = connect;
+	}
+
+	/**
+	 * Parses a geometry written as columns x rows, optionally followed by a colon
+	 * and the number of discs in a line that wins (4 if left out), e.g. "7x6",
+	 * "8x7" or "9x7:5"
+	 *
+	 * @throws IllegalArgumentException if @param spec is not a valid geometry
+	 */
+	public static Geometry fromSpec(String spec) {
+		String[] parts = spec.trim().toLowerCase().split(":");
+		String[] size = parts[0].split("x");
+		try {
+			if (parts.length > 2 || size.length != 2) {
+				throw new NumberFormatException();
+			}
+			int connect = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 4;
+			return new Geometry(Integer.parseInt(size[0].trim()), Integer.parseInt(size[1].trim()), connect);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Expected a board like 7x6 or 9x7:5, got " + spec);
+		}
+	}
+
+	/**
+	 * @return an empty board of this geometry
+	 */
+	public Board newBoard() {
+		return isStandard() ? new BitBoard() : new GridBoard(this);
+	}
+
+	/**
+	 * @return whether this is 7x6 connect 4
+	 */
+	public boolean isStandard() {
+		return equals(STANDARD);
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getConnect() {
+		return connect;
+	}
+
+	/**
+	 * @return the number of cells on the board
+	 */
+	public int getCells() {
+		return columns * rows;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof Geometry)) {
+			return false;
+		}
+		Geometry geometry = (Geometry) other;
+		return columns == geometry.columns && rows == geometry.rows && connect == geometry.connect;
+	}
+
+	@Override
+	public int hashCode() {
+		return (columns * 31 + rows) * 31 + connect;
+	}
+
+	/**
+	 * @return the geometry in the form fromSpec reads
+	 */
+	@Override
+	public String toString() {
+		return columns + "x" + rows + ":" + connect;
+	}
+}
@@ -0,0 +1,188 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Board for any Geometry, such as 8x7 connect 4 or 9x7 connect 5.
+ *
+ * Cells are kept in a plain array, one column after another, since larger
+ * boards do not fit a BitBoard's 64-bit masks. The win check is built from the
+ * geometry: for each of the four line directions it knows the step between
+ * neighboring cells and how many cells it can walk from any cell before leaving
+ * the board, and it looks for Geometry.getConnect() in a row through the last
+ * disc played. The walk lengths are worked out once per geometry and shared by
+ * every board of that geometry.
+ *
+ * Used by Model for every geometry other than the standard one, which stays on
+ * BitBoard.
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class GridBoard implements Board {
+	// column and row steps of the four line directions: vertical, horizontal and
+	// the two diagonals
+	private static final int[][] DIRECTIONS = { { 0, 1 }, { 1, 0 }, { 1, 1 }, { 1, -1 } };
+	private static final Map<Geometry, int[][]> REACH = new ConcurrentHashMap<>();
+
+	private final Geometry geometry;
+	private final int columns;
+	private final int rows;
+	private final int connect;
+	// index steps of each direction in cells
+	private final int[] steps;
+	// reach[d][cell] is how many steps can be taken from the cell in direction d
+	// before leaving the board, and reach[d + 4] the same going backwards
+	private final int[][] reach;
+
+	private final int[] cells;
+	private final int[] heights;
+	private final int[] history;
+	private int moves;
+
+	/**
+	 * Creates an empty board of @param geometry
+	 */
+	public GridBoard(Geometry geometry) {
+		this.geometry = geometry;
+		columns = geometry.getColumns();
+		rows = geometry.getRows();
+		connect = geometry.getConnect();
+		cells = new int[columns * rows];
+		heights = new int[columns];
+		history = new int[columns * rows];
+
+		steps = new int[DIRECTIONS.length];
+		for (int d = 0; d < DIRECTIONS.length; d++) {
+			steps[d] = DIRECTIONS[d][0] * rows + DIRECTIONS[d][1];
+		}
+		reach = REACH.computeIfAbsent(geometry, GridBoard::reach);
+	}
+
+	/**
+	 * @return the reach table for boards of @param geometry
+	 */
+	private static int[][] reach(Geometry geometry) {
+		int rows = geometry.getRows();
+		int[][] reach = new int[DIRECTIONS.length * 2][geometry.getCells()];
+		for (int d = 0; d < DIRECTIONS.length; d++) {
+			int dc = DIRECTIONS[d][0];
+			int dr = DIRECTIONS[d][1];
+			for (int col = 0; col < geometry.getColumns(); col++) {
+				for (int row = 0; row < rows; row++) {
+					reach[d][col * rows + row] = walk(geometry, row, col, dr, dc);
+					reach[d + DIRECTIONS.length][col * rows + row] = walk(geometry, row, col, -dr, -dc);
+				}
+			}
+		}
+		return reach;
+	}
+
+	/**
+	 * @return how many steps of (@param dr, @param dc) stay on a board of @param
+	 *         geometry from @param row, @param col, capped at the length of a
+	 *         winning line
+	 */
+	private static int walk(Geometry geometry, int row, int col, int dr, int dc) {
+		int count = 0;
+		while (count < geometry.getConnect() - 1) {
+			row += dr;
+			col += dc;
+			if (row < 0 || row >= geometry.getRows() || col < 0 || col >= geometry.getColumns()) {
+				break;
+			}
+			count++;
+		}
+		return count;
+	}
+
+	private int index(int row, int col) {
+		return col * rows + row;
+	}
+
+	@Override
+	public Geometry getGeometry() {
+		return geometry;
+	}
+
+	@Override
+	public boolean canPlay(int col) {
+		return heights[col] < rows;
+	}
+
+	@Override
+	public int play(int col) {
+		int row = heights[col]++;
+		cells[index(row, col)] = (moves & 1) + 1;
+		history[moves++] = col;
+		return row;
+	}
+
+	@Override
+	public int undo() {
+		int col = history[--moves];
+		int row = --heights[col];
+		cells[index(row, col)] = 0;
+		return col;
+	}
+
+	@Override
+	public boolean isLastMoveWin() {
+		int col = history[moves - 1];
+		int cell = index(heights[col] - 1, col);
+		int color = cells[cell];
+		for (int d = 0; d < steps.length; d++) {
+			int length = 1;
+			for (int i = 1, at = cell; i <= reach[d][cell] && cells[at += steps[d]] == color; i++) {
+				length++;
+			}
+			for (int i = 1, at = cell; i <= reach[d + steps.length][cell] && cells[at -= steps[d]] == color; i++) {
+				length++;
+			}
+			if (length >= connect) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean isFull() {
+		return moves == cells.length;
+	}
+
+	@Override
+	public int getCurrentColor() {
+		return (moves & 1) + 1;
+	}
+
+	@Override
+	public int getMoves() {
+		return moves;
+	}
+
+	@Override
+	public int getMove(int i) {
+		return history[i];
+	}
+
+	@Override
+	public int getHeight(int col) {
+		return heights[col];
+	}
+
+	@Override
+	public int getCell(int row, int col) {
+		return cells[index(row, col)];
+	}
+
+	@Override
+	public Integer[][] toArray() {
+		Integer[][] board = new Integer[rows][columns];
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < columns; j++) {
+				board[i][j] = getCell(i, j);
+			}
+		}
+		return board;
+	}
+}
@@ -0,0 +1,458 @@
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computer player that picks its moves with Monte Carlo tree search.
+ *
+ * Each playout walks down the tree choosing children by UCT, grows the tree by
+ * one node's children, then plays the game out to the end with a fast policy:
+ * win if possible, otherwise a random move that does not hand the opponent an
+ * immediate win, never a full column. The result is added to every node on the
+ * way down, and once the time for the move is up the most visited move is
+ * played.
+ *
+ * Trees are stored in an arena of primitive arrays indexed by node, with every
+ * node's children next to each other, so a playout allocates nothing and the
+ * memory used is fixed when the player is created. Between moves the tree is
+ * kept: the subtree under the moves played since becomes the new root, as long
+ * as the arena is less than half full, and otherwise the tree starts over.
+ *
+ * With more than one thread the search is root-parallel: every thread grows its
+ * own tree from the same position, and the visits of the root's children are
+ * added up across trees to pick the move.
+ *
+ * Usage: java MctsPlayer [threads] [moveMillis] [megabytes]
+ *
+ * Plays a game against itself and prints playouts per second, the arena memory
+ * used and how much of each tree was reused for every move.
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class MctsPlayer implements ComputerPlayer {
+	public static final int DEFAULT_MEGABYTES = 64;
+	// visits, wins, first child, child count, move and result
+	public static final int NODE_BYTES = 3 * Integer.BYTES + 3;
+	private static final int CELLS = BitBoard.COLUMNS * BitBoard.ROWS;
+	private static final double EXPLORATION = Math.sqrt(2);
+
+	private final Tree[] trees;
+	private final ExecutorService helpers;
+	private final long budgetNanos;
+	private long playoutLimit = Long.MAX_VALUE;
+	private long playouts;
+	private long reusedVisits;
+	private long elapsedNanos;
+
+	/**
+	 * @param threads    how many trees to grow at once, including on the caller's
+	 *                   thread
+	 * @param moveMillis how long to spend on each move
+	 * @param megabytes  memory for the node arenas of all the trees together
+	 */
+	public MctsPlayer(int threads, long moveMillis, int megabytes) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Need at least one search thread, got " + threads);
+		}
+		int nodes = (int) Math.min(Integer.MAX_VALUE / 2, (long) megabytes * (1 << 20) / NODE_BYTES / threads);
+		if (nodes < CELLS * BitBoard.COLUMNS) {
+			throw new IllegalArgumentException("Not enough memory for " + threads + " trees: " + megabytes + " MB");
+		}
+		budgetNanos = moveMillis * 1_000_000L;
+		trees = new Tree[threads];
+		for (int i = 0; i < threads; i++) {
+			trees[i] = new Tree(nodes, 0x9E3779B97F4A7C15L * (i + 1));
+		}
+		helpers = Executors.newFixedThreadPool(Math.max(1, threads - 1), runnable -> {
+			Thread thread = new Thread(runnable, "mcts-helper");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public int chooseMove(BitBoard board) {
+		long start = System.nanoTime();
+		long deadline = start + budgetNanos;
+		Future<?>[] running = new Future<?>[trees.length - 1];
+		for (int i = 1; i < trees.length; i++) {
+			Tree tree = trees[i];
+			BitBoard copy = new BitBoard(board);
+			running[i - 1] = helpers.submit(() -> tree.search(copy, deadline, playoutLimit));
+		}
+		trees[0].search(board, deadline, playoutLimit);
+		for (Future<?> helper : running) {
+			try {
+				helper.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+		}
+
+		long[] visits = new long[BitBoard.COLUMNS];
+		playouts = 0;
+		reusedVisits = 0;
+		for (Tree tree : trees) {
+			tree.addRootVisits(visits);
+			playouts += tree.playouts;
+			reusedVisits += tree.reusedVisits;
+		}
+		int best = -1;
+		for (int col : NegamaxPlayer.centerFirstOrder()) {
+			if (board.canPlay(col) && (best < 0 || visits[col] > visits[best])) {
+				best = col;
+			}
+		}
+		elapsedNanos = System.nanoTime() - start;
+		return best;
+	}
+
+	/**
+	 * Stops each tree after @param limit playouts per move even if there is time
+	 * left, so searches can be repeated exactly. Long.MAX_VALUE, the default,
+	 * means only the time budget counts.
+	 */
+	public void setPlayoutLimit(long limit) {
+		this.playoutLimit = limit;
+	}
+
+	/**
+	 * Shuts down the helper threads. The player cannot be used afterwards.
+	 */
+	@Override
+	public void close() {
+		helpers.shutdownNow();
+	}
+
+	/**
+	 * @return the playouts run by all trees for the last move
+	 */
+	public long getPlayouts() {
+		return playouts;
+	}
+
+	/**
+	 * @return how many playouts per second all trees together ran for the last
+	 *         move
+	 */
+	public long getPlayoutsPerSecond() {
+		return elapsedNanos == 0 ? 0 : playouts * 1_000_000_000L / elapsedNanos;
+	}
+
+	/**
+	 * @return how many playouts the roots already had from earlier moves when the
+	 *         last move started
+	 */
+	public long getReusedVisits() {
+		return reusedVisits;
+	}
+
+	/**
+	 * @return how long the last move took, in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return the number of arena nodes in use across all trees
+	 */
+	public long getNodesUsed() {
+		long used = 0;
+		for (Tree tree : trees) {
+			used += tree.used;
+		}
+		return used;
+	}
+
+	/**
+	 * @return the memory taken by the node arenas of all the trees, in bytes
+	 */
+	public long getArenaBytes() {
+		return (long) trees.length * trees[0].capacity * NODE_BYTES;
+	}
+
+	/**
+	 * One search tree and the arena its nodes live in. Node i's statistics are at
+	 * index i of every array; its children are the childCount[i] nodes starting at
+	 * firstChild[i]. Only used by one thread at a time.
+	 */
+	private static class Tree {
+		// result of the move into a node, once it has been visited
+		private static final byte UNKNOWN = 0;
+		private static final byte WIN = 1;
+		private static final byte DRAW = 2;
+		private static final byte ONGOING = 3;
+
+		final int capacity;
+		final int[] visits;
+		// playouts won by the player who made the move into the node, draws
+		// counting half
+		final float[] wins;
+		final int[] firstChild;
+		final byte[] childCount;
+		final byte[] move;
+		final byte[] result;
+		int used;
+		int root = -1;
+		// the moves that lead to the root
+		final int[] rootHistory = new int[CELLS];
+		int rootMoves;
+		// the nodes of the current playout, from the root down
+		final int[] path = new int[CELLS + 1];
+		long random;
+		long playouts;
+		long reusedVisits;
+
+		Tree(int capacity, long seed) {
+			this.capacity = capacity;
+			visits = new int[capacity];
+			wins = new float[capacity];
+			firstChild = new int[capacity];
+			childCount = new byte[capacity];
+			move = new byte[capacity];
+			result = new byte[capacity];
+			random = seed;
+		}
+
+		/**
+		 * Runs playouts from @param board until @param deadline or @param limit
+		 * playouts
+		 */
+		void search(BitBoard board, long deadline, long limit) {
+			moveRoot(board);
+			playouts = 0;
+			while (playouts < limit && System.nanoTime() < deadline) {
+				playout(board);
+				playouts++;
+			}
+		}
+
+		/**
+		 * Makes the node for @param board the root, keeping what the tree knows
+		 * about it if it was reached from the old root and the arena has room to
+		 * spare, and starting a new tree otherwise
+		 */
+		private void moveRoot(BitBoard board) {
+			int node = root;
+			int moves = board.getMoves();
+			if (moves < rootMoves || used > capacity / 2) {
+				node = -1;
+			}
+			for (int i = 0; i < rootMoves && node >= 0; i++) {
+				if (board.getMove(i) != rootHistory[i]) {
+					node = -1;
+				}
+			}
+			for (int i = rootMoves; i < moves && node >= 0; i++) {
+				node = child(node, board.getMove(i));
+			}
+			if (node < 0) {
+				used = 0;
+				node = newNode(-1);
+			}
+			root = node;
+			// the game is never over at the root, even if nothing has played past it
+			result[root] = ONGOING;
+			for (int i = 0; i < moves; i++) {
+				rootHistory[i] = board.getMove(i);
+			}
+			rootMoves = moves;
+			reusedVisits = visits[root];
+			if (firstChild[root] < 0) {
+				expand(root, board);
+			}
+		}
+
+		/**
+		 * @return the child of @param node reached by playing @param col, or -1 if
+		 *         it has not been expanded
+		 */
+		private int child(int node, int col) {
+			for (int c = firstChild[node], end = c + childCount[node]; c >= 0 && c < end; c++) {
+				if (move[c] == col) {
+					return c;
+				}
+			}
+			return -1;
+		}
+
+		private int newNode(int col) {
+			int node = used++;
+			visits[node] = 0;
+			wins[node] = 0;
+			firstChild[node] = -1;
+			childCount[node] = 0;
+			move[node] = (byte) col;
+			result[node] = UNKNOWN;
+			return node;
+		}
+
+		/**
+		 * Adds a child to @param node for every playable column of @param board, if
+		 * the arena has room for them
+		 */
+		private void expand(int node, BitBoard board) {
+			if (used + BitBoard.COLUMNS > capacity) {
+				return;
+			}
+			int first = used;
+			for (int col = 0; col < BitBoard.COLUMNS; col++) {
+				if (board.canPlay(col)) {
+					newNode(col);
+				}
+			}
+			firstChild[node] = first;
+			childCount[node] = (byte) (used - first);
+		}
+
+		/**
+		 * Picks the child of @param node with the best UCT score. Children that have
+		 * never been visited come first.
+		 */
+		private int select(int node) {
+			int best = -1;
+			double bestValue = Double.NEGATIVE_INFINITY;
+			double logVisits = Math.log(visits[node]);
+			for (int c = firstChild[node], end = c + childCount[node]; c < end; c++) {
+				if (visits[c] == 0) {
+					return c;
+				}
+				double value = wins[c] / visits[c] + EXPLORATION * Math.sqrt(logVisits / visits[c]);
+				if (value > bestValue) {
+					bestValue = value;
+					best = c;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Runs one playout from the root, which is the position on @param board, and
+		 * leaves the board as it found it
+		 */
+		private void playout(BitBoard board) {
+			int rootColor = board.getCurrentColor();
+			int depth = 0;
+			int node = root;
+			path[depth++] = node;
+			while (firstChild[node] >= 0 && result[node] == ONGOING) {
+				node = select(node);
+				board.play(move[node]);
+				path[depth++] = node;
+				if (result[node] == UNKNOWN) {
+					result[node] = board.isLastMoveWin() ? WIN : board.isFull() ? DRAW : ONGOING;
+				}
+				// grow the tree under a node on its second visit
+				if (result[node] == ONGOING && firstChild[node] < 0 && visits[node] > 0) {
+					expand(node, board);
+				}
+			}
+
+			int winner;
+			if (result[node] == WIN) {
+				winner = 3 - board.getCurrentColor();
+			} else if (result[node] == DRAW) {
+				winner = 0;
+			} else {
+				winner = simulate(board);
+			}
+
+			for (int i = depth - 1; i >= 0; i--) {
+				int n = path[i];
+				visits[n]++;
+				// the move into node i was made by the root's player when i is odd
+				int mover = (i & 1) == 1 ? rootColor : 3 - rootColor;
+				wins[n] += winner == mover ? 1f : winner == 0 ? 0.5f : 0f;
+			}
+			for (int i = 1; i < depth; i++) {
+				board.undo();
+			}
+		}
+
+		/**
+		 * Plays the game on @param board out to the end and takes the moves back
+		 *
+		 * @return the color that won, or 0 for a draw
+		 */
+		private int simulate(BitBoard board) {
+			int played = 0;
+			int winner = 0;
+			while (!board.isFull()) {
+				if (board.canWinNext()) {
+					winner = board.getCurrentColor();
+					break;
+				}
+				long options = board.nonLosingMoves();
+				if (options == 0) {
+					// every move lets the opponent win
+					winner = 3 - board.getCurrentColor();
+					break;
+				}
+				board.play(BitBoard.columnOf(randomCell(options)));
+				played++;
+			}
+			for (int i = 0; i < played; i++) {
+				board.undo();
+			}
+			return winner;
+		}
+
+		/**
+		 * @return one of the cells in @param mask, chosen at random
+		 */
+		private long randomCell(long mask) {
+			// xorshift, so picking a move allocates nothing
+			random ^= random << 13;
+			random ^= random >>> 7;
+			random ^= random << 17;
+			int skip = (int) ((random >>> 1) % Long.bitCount(mask));
+			for (int i = 0; i < skip; i++) {
+				mask &= mask - 1;
+			}
+			return mask & -mask;
+		}
+
+		/**
+		 * Adds the visits of each of the root's children to @param visits, indexed
+		 * by column
+		 */
+		void addRootVisits(long[] visits) {
+			for (int c = firstChild[root], end = c + childCount[root]; c >= 0 && c < end; c++) {
+				visits[move[c]] += this.visits[c];
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		long millis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+		int megabytes = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MEGABYTES;
+		MctsPlayer player = new MctsPlayer(threads, millis, megabytes);
+		System.out.printf("%d threads, %d ms per move, arena %d MB for %d nodes%n", threads, millis,
+				player.getArenaBytes() >> 20, player.getArenaBytes() / NODE_BYTES);
+		System.out.println("move\tcolumn\tplayouts\tplayouts/sec\treused\tnodes used");
+		BitBoard board = new BitBoard();
+		long playouts = 0;
+		long nanos = 0;
+		while (!board.isFull()) {
+			int col = player.chooseMove(new BitBoard(board));
+			playouts += player.getPlayouts();
+			nanos += player.getElapsedNanos();
+			System.out.printf("%d\t%d\t%d\t%d\t%d\t%d%n", board.getMoves() + 1, col + 1, player.getPlayouts(),
+					player.getPlayoutsPerSecond(), player.getReusedVisits(), player.getNodesUsed());
+			board.play(col);
+			if (board.isLastMoveWin()) {
+				break;
+			}
+		}
+		System.out.printf("%s after %d moves, %d playouts/sec overall%n",
+				board.isLastMoveWin() ? (board.getCurrentColor() == 1 ? "red" : "yellow") + " won" : "draw",
+				board.getMoves(), playouts * 1_000_000_000L / nanos);
+		player.close();
+	}
+}
@@ -7,220 +7,186 @@
 import java.io.Serializable;
 
 public class Model extends java.util.Observable {
-	private final int COLUMNS = 7;
-	private final int ROWS = 6;
-	private Integer[][] board;
-	private int color;
-	private boolean isWinner;
+	private final Geometry geometry;
+	private final int cells;
+	private Board board;
+	private int winner;
+	// how many moves had been played when the game was won
+	private int winningMoves;
+	private int moves;
 
 	/**
-	 * This constructor creates a double array to represent the connect 4 board and
-	 * fills each spot with 0's
+	 * This constructor creates an empty bitboard to represent the standard 7x6
+	 * connect 4 board
 	 */
 	public Model() {
-		this.board = new Integer[ROWS][COLUMNS];
-		this.color = 1;
-		for (int i = 0; i < ROWS; i++) {
-			for (int j = 0; j < COLUMNS; j++) {
-				board[i][j] = 0;
-			}
-		}
+		this(Geometry.STANDARD);
+	}
+
+	/**
+	 * This constructor creates an empty board of @param geometry. The standard
+	 * geometry is played on a BitBoard and every other one on a GridBoard.
+	 */
+	public Model(Geometry geometry) {
+		this.geometry = geometry;
+		this.cells = geometry.getCells();
+		this.board = geometry.newBoard();
+		this.winner = 0;
+		this.moves = 0;
+	}
+
+	/**
+	 * @return the size of the board and how many in a row win
+	 */
+	public Geometry getGeometry() {
+		return geometry;
+	}
+
+	/**
+	 * @param col a column on the board
+	 * @return whether a disc can still be dropped in the column
+	 */
+	public boolean canPlay(int col) {
+		return board.canPlay(col);
 	}
 
 	/**
-	 * This returns the connect 4 board
+	 * This returns the connect 4 board. The board is stored as a Board, so the
+	 * array is built fresh on every call and changing it does not affect the game.
 	 * 
 	 * @return the connect 4 board
 	 */
 	public Integer[][] getBoard() {
-		return this.board;
+		return board.toArray();
 	}
 
 	/**
-	 * This method updates the view by notifying the observer with a new
-	 * Connect4MoveMessage class
+	 * This returns a copy of the board that the computer player can search on
+	 * without changing the game. Only the standard geometry can be searched.
+	 * 
+	 * @return a copy of the connect 4 board
+	 * @throws UnsupportedOperationException if this is not a 7x6 connect 4 game
+	 */
+	public BitBoard getPosition() {
+		if (!(board instanceof BitBoard)) {
+			throw new UnsupportedOperationException("Only 7x6 connect 4 can be searched, this game is " + geometry);
+		}
+		return new BitBoard((BitBoard) board);
+	}
+
+	/**
+	 * This method updates the view by notifying the observer with the
+	 * Connect4MoveMessage of the move. Messages are shared instances, so nothing is
+	 * allocated for them.
 	 * 
 	 * @param col the column where the player chose to play
-	 * @return a boolean saying whether the column is full or not.
+	 * @return the move played, or Connect4MoveMessage.COLUMN_FULL if the column is
+	 *         full
 	 */
 	public Connect4MoveMessage update(int col) {
-		Connect4MoveMessage toReturn = null;
-		int row = 0;
-		for (int i = 0; i < ROWS; i++) {
-			if (board[i][col] != 0) {
-				row = i + 1;
-			}
-		}
-		if (row >= ROWS) {
-			toReturn = new Connect4MoveMessage(0, 0, 0);
-			setChanged();
-			notifyObservers(toReturn);
-			return toReturn;
+		Connect4MoveMessage toReturn = Connect4MoveMessage.COLUMN_FULL;
+		if (apply(col).isPlayed()) {
+			toReturn = Connect4MoveMessage.of(board.getHeight(col) - 1, col, 2 - (moves & 1));
 		}
-		int color = this.color;
-		if (color == 1) {
-			this.color = 2;
-		} else {
-			this.color = 1;
-		}
-		;
-		board[row][col] = color;
-		toReturn = new Connect4MoveMessage(row, col, color);
 		this.setChanged();
 		notifyObservers(toReturn);
 		return toReturn;
 	}
 
 	/**
-	 * This method checks over all of the rows, the the columns then all possible
-	 * diagonals to see if any player has won yet. It checks the diagonals by using
-	 * 4 helper methods to check each of the 4 corners to see if any diagonals exist
-	 * there. It iterates over 4 different list of points to checks each of the 4
-	 * diagonal spots and their corresponding points
+	 * This method drops a disc in @param col without notifying the observers, for
+	 * searches and simulations that play many moves and take them back again. It
+	 * allocates nothing.
 	 * 
-	 * @return a boolean stating whether or not the game is over
+	 * @return what the move did, or MoveResult.COLUMN_FULL if nothing was played
 	 */
-	public boolean isGameOver() {
-
-		// checks rows
-		for (int i = 0; i < ROWS; i++) {
-			for (int j = 0; j < 4; j++) {
-				int color = board[i][j];
-				if (color != 0 && board[i][j] == color && board[i][j + 1] == color && board[i][j + 2] == color
-						&& board[i][j + 3] == color) {
-					if (board[i][j] == color)
-						return true;
-				}
-			}
-		}
-
-		// checks columns
-		for (int col = 0; col < COLUMNS; col++) {
-			for (int row = 0; row < 3; row++) {
-				int rcolor = board[row][col];
-				if (rcolor != 0 && board[row][col] == rcolor && board[row + 1][col] == rcolor
-						&& board[row + 2][col] == rcolor && board[row + 3][col] == rcolor) {
-					return true;
-				}
-			}
-		}
-
-		// checks diagonal
-		int[][] downRight = new int[][] { { 0, 0 }, { 0, 1 }, { 0, 2 }, { 0, 3 }, { 1, 0 }, { 2, 0 }, { 3, 0 } };
-
-		for (int[] dR : downRight) {
-			if (checkDownRight(dR[0], dR[1])) {
-				return true;
-			}
-		}
-
-		int[][] downLeft = new int[][] { { 0, 6 }, { 0, 5 }, { 0, 4 }, { 0, 3 }, { 1, 6 }, { 2, 6 }, { 3, 6 } };
-
-		for (int[] dL : downLeft) {
-			if (checkDownLeft(dL[0], dL[1])) {
-				return true;
-			}
-		}
-
-		int[][] upRight = new int[][] { { 5, 0 }, { 5, 1 }, { 5, 2 }, { 5, 3 }, { 4, 0 }, { 3, 0 } };
+	public MoveResult apply(int col) {
+		if (!board.canPlay(col)) {
+			return MoveResult.COLUMN_FULL;
+		}
+		int color = board.getCurrentColor();
+		board.play(col);
+		moves++;
+		if (winner == 0 && board.isLastMoveWin()) {
+			winner = color;
+			winningMoves = moves;
+			return MoveResult.WON;
+		}
+		return moves == cells ? MoveResult.DRAW : MoveResult.PLAYED;
+	}
 
-		for (int[] uR : upRight) {
-			if (checkUpRight(uR[0], uR[1])) {
-				return true;
-			}
+	/**
+	 * This method takes back the last move played, without notifying the
+	 * observers. A game that was won by that move is no longer won.
+	 * 
+	 * @return the column the move was played in
+	 * @throws IllegalStateException if no moves have been played
+	 */
+	public int undo() {
+		if (moves == 0) {
+			throw new IllegalStateException("No moves to undo");
 		}
-
-		int[][] upLeft = new int[][] { { 5, 6 }, { 4, 6 }, { 3, 6 }, { 5, 5 }, { 5, 4 }, { 5, 3 } };
-
-		for (int[] uL : upLeft) {
-			if (checkUpLeft(uL[0], uL[1])) {
-				return true;
-			}
+		if (moves == winningMoves) {
+			winner = 0;
+			winningMoves = 0;
 		}
+		moves--;
+		return board.undo();
+	}
 
-		for (int i = 0; i < ROWS; i++) {
-			for (int j = 0; j < COLUMNS; j++) {
-				if (board[i][j] == 0) {
-					return false;
-				}
-			}
-		}
-		return true;
+	/**
+	 * This method takes back the last move played and updates the view by
+	 * notifying the observer with a Connect4MoveMessage of color 0 for the cell
+	 * that was emptied. Takes constant time, like undo.
+	 * 
+	 * @return the cell that was emptied
+	 * @throws IllegalStateException if no moves have been played
+	 */
+	public Connect4MoveMessage takeBack() {
+		int col = undo();
+		Connect4MoveMessage toReturn = Connect4MoveMessage.of(board.getHeight(col), col, 0);
+		this.setChanged();
+		notifyObservers(toReturn);
+		return toReturn;
+	}
 
+	/**
+	 * @return the color of the player to move next
+	 */
+	public int getCurrentColor() {
+		return board.getCurrentColor();
 	}
 
 	/**
-	 * This method takes a point on the board and checks to see if a diagonal of 4
-	 * player numbers exists there
-	 * 
-	 * @param row A row on the board
-	 * @param col A column on the board
-	 * @return a boolean seeing if a diagonal exists
+	 * @return how many moves have been played
 	 */
-	private boolean checkDownRight(int row, int col) {
-		int color = board[row][col];
-		if (row + 3 > 6 || col + 3 > 7) {
-			return false;
-		}
-		if (color != 0 && board[row][col] == color && board[row + 1][col + 1] == color
-				&& board[row + 2][col + 2] == color && board[row + 3][col + 3] == color) {
-			return true;
-		}
-		return false;
+	public int getMoveCount() {
+		return moves;
 	}
 
 	/**
-	 * This method takes a point on the board and checks to see if a diagonal of 4
-	 * player numbers exists there
-	 * 
-	 * @param row A row on the board
-	 * @param col A column on the board
-	 * @return a boolean seeing if a diagonal exists
+	 * @param i a move number, counting from 0
+	 * @return the column the move was played in
 	 */
-	private boolean checkUpRight(int row, int col) {
-		int color = board[row][col];
-		if (row - 3 < 0 || col + 3 > 7) {
-			return false;
-		}
-		if (color != 0 && board[row][col] == color && board[row - 1][col + 1] == color
-				&& board[row - 2][col + 2] == color && board[row - 3][col + 3] == color) {
-			return true;
-		}
-		return false;
+	public int getMove(int i) {
+		return board.getMove(i);
 	}
 
 	/**
-	 * This method takes a point on the board and checks to see if a diagonal of 4
-	 * player numbers exists there
+	 * This method reports whether someone has won or the board has filled up. Both
+	 * are recorded by update as each disc is placed, so nothing is scanned here.
 	 * 
-	 * @param row A row on the board
-	 * @param col A column on the board
-	 * @return a boolean seeing if a diagonal exists
+	 * @return a boolean stating whether or not the game is over
 	 */
-	private boolean checkDownLeft(int row, int col) {
-		int color = board[row][col];
-		if (color != 0 && board[row][col] == color && board[row + 1][col - 1] == color
-				&& board[row + 2][col - 2] == color && board[row + 3][col - 3] == color) {
-			return true;
-		}
-		return false;
+	public boolean isGameOver() {
+		return winner != 0 || moves == cells;
 	}
 
 	/**
-	 * This method takes a point on the board and checks to see if a diagonal of 4
-	 * player numbers exists there
-	 * 
-	 * @param row A row on the board
-	 * @param col A column on the board
-	 * @return a boolean seeing if a diagonal exists
+	 * @return the color of the player who won, or 0 if nobody has won yet
 	 */
-	private boolean checkUpLeft(int row, int col) {
-		int color = board[row][col];
-		if (color != 0 && board[row][col] == color && board[row - 1][col - 1] == color
-				&& board[row - 2][col - 2] == color && board[row - 3][col - 3] == color) {
-			return true;
-		}
-		return false;
+	public int getWinner() {
+		return winner;
 	}
 
 }
@@ -0,0 +1,92 @@
+/**
+ * Compares how well each combination of NegamaxPlayer's move ordering
+ * heuristics prunes the search.
+ *
+ * For every combination, solves a fixed set of midgame positions exactly and
+ * searches a set of opening positions to a fixed depth, each with a fresh
+ * transposition table, and prints the nodes visited, the time taken and the
+ * bytes allocated while searching. Fewer nodes means the best moves were tried
+ * earlier. Each position is given as a move sequence with columns numbered
+ * from 1.
+ *
+ * Usage: java MoveOrderingBenchmark [tableMegabytes] [openingDepth]
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class MoveOrderingBenchmark {
+	// the positions SearchBenchmark solves
+	private static final String[] MIDGAME = { "23423567221336", "77161144723571", "46764241147762",
+			"5233567647613513", "26544662543621", "35712331315227", "672656511711", "11747644263",
+			"17454462416", "63434544771" };
+	private static final String[] OPENING = { "", "4", "44", "43", "4453", "3354", "2417", "445566" };
+
+	private static final int[] ORDERINGS = { NegamaxPlayer.CENTER_ONLY, NegamaxPlayer.THREATS,
+			NegamaxPlayer.KILLERS | NegamaxPlayer.HISTORY, NegamaxPlayer.THREATS | NegamaxPlayer.KILLERS,
+			NegamaxPlayer.THREATS | NegamaxPlayer.HISTORY, NegamaxPlayer.ALL_ORDERING };
+
+	public static void main(String[] args) {
+		int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : TranspositionTable.DEFAULT_MEGABYTES;
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+		System.out.printf("%-24s %14s %9s %14s %9s %9s%n", "ordering", "solve nodes", "ms",
+				"depth " + depth + " nodes", "ms", "bytes");
+		TranspositionTable table = new TranspositionTable(megabytes);
+		long baseline = 0;
+		for (int ordering : ORDERINGS) {
+			long[] midgame = run(new NegamaxPlayer(NegamaxPlayer.UNLIMITED, table), ordering, MIDGAME, true);
+			long[] opening = run(new NegamaxPlayer(depth, table), ordering, OPENING, false);
+			if (ordering == NegamaxPlayer.CENTER_ONLY) {
+				baseline = midgame[0] + opening[0];
+			}
+			System.out.printf("%-24s %14d %9d %14d %9d %9d   %.0f%% of center only%n", name(ordering), midgame[0],
+					midgame[1] / 1_000_000, opening[0], opening[1] / 1_000_000, midgame[2] + opening[2],
+					100.0 * (midgame[0] + opening[0]) / baseline);
+		}
+	}
+
+	/**
+	 * Searches every position in @param positions with @param player, solving them
+	 * exactly if @param solve is set and choosing a move otherwise
+	 *
+	 * @return the total nodes, nanoseconds and bytes allocated while searching
+	 *         (negative if the JVM cannot count them)
+	 */
+	private static long[] run(NegamaxPlayer player, int ordering, String[] positions, boolean solve) {
+		player.setOrdering(ordering);
+		long nodes = 0;
+		long nanos = 0;
+		long bytes = 0;
+		for (String moves : positions) {
+			BitBoard board = BitBoard.fromMoves(moves);
+			player.getTable().clear();
+			long before = Allocations.allocatedBytes();
+			if (solve) {
+				player.solve(board);
+			} else {
+				player.chooseMove(board);
+			}
+			bytes += before < 0 ? 0 : Allocations.allocatedBytes() - before;
+			nodes += player.getNodeCount();
+			nanos += player.getElapsedNanos();
+		}
+		return new long[] { nodes, nanos, Allocations.allocatedBytes() < 0 ? -1 : bytes };
+	}
+
+	private static String name(int ordering) {
+		if (ordering == NegamaxPlayer.CENTER_ONLY) {
+			return "center only";
+		}
+		StringBuilder name = new StringBuilder();
+		if ((ordering & NegamaxPlayer.THREATS) != 0) {
+			name.append("+threats");
+		}
+		if ((ordering & NegamaxPlayer.KILLERS) != 0) {
+			name.append("+killers");
+		}
+		if ((ordering & NegamaxPlayer.HISTORY) != 0) {
+			name.append("+history");
+		}
+		return name.substring(1);
+	}
+}
@@ -0,0 +1,23 @@
+/**
+ * What happened when Model.apply dropped a disc.
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public enum MoveResult {
+	/** the disc was dropped and the game goes on */
+	PLAYED,
+	/** the disc was dropped and won the game */
+	WON,
+	/** the disc was dropped and filled the board without anyone winning */
+	DRAW,
+	/** the column was full, so nothing was played */
+	COLUMN_FULL;
+
+	/**
+	 * @return whether a disc was dropped
+	 */
+	public boolean isPlayed() {
+		return this != COLUMN_FULL;
+	}
+}
@@ -0,0 +1,585 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Computer player that picks its moves with a negamax alpha-beta search.
+ *
+ * Scores are given from the point of view of the player to move. A win scores
+ * higher the sooner it happens: winning with your k-th disc scores
+ * (COLUMNS * ROWS + 2) / 2 - k, a draw scores 0, and a loss is the negative of
+ * the opponent's win. Positions cut off by the depth limit also score 0, so with
+ * an unlimited depth the search solves the position exactly.
+ *
+ * Any move that lets the opponent win right away is never searched at all, and
+ * if the opponent threatens to win only the block is searched. Results are
+ * cached in a TranspositionTable, and the best move it remembers for a position
+ * is always tried first. The rest are sorted, best guess first, by:
+ *
+ * <ol>
+ * <li>threats: how many cells the move leaves the player able to win with</li>
+ * <li>optionally, killer moves: the last two moves that caused a cutoff at the
+ * same depth in the game, which often refute the neighboring positions too</li>
+ * <li>optionally, history: how much each cell has caused cutoffs so far in
+ * this search</li>
+ * <li>the center column outwards, since central discs take part in the most
+ * lines</li>
+ * </ol>
+ *
+ * Killers and history are off by default: in connect 4 they override the
+ * center-first order, which is the better guess, and MoveOrderingBenchmark
+ * shows them more than doubling the nodes a solve visits. Moves are sorted into
+ * arrays kept for every ply, so ordering allocates nothing while searching.
+ *
+ * A position and its mirror image have the same score with mirrored moves, so
+ * they share one table entry under BitBoard.getCanonicalKey, a position that
+ * is its own mirror image only has its left half searched, and chooseMove
+ * always searches whichever of the pair is canonical.
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class NegamaxPlayer implements ComputerPlayer {
+	public static final int UNLIMITED = BitBoard.COLUMNS * BitBoard.ROWS;
+	private static final int CELLS = BitBoard.COLUMNS * BitBoard.ROWS;
+	private static final int[] ORDER = centerFirstOrder();
+
+	// which heuristics sort the moves, see setOrdering
+	public static final int CENTER_ONLY = 0;
+	public static final int THREATS = 1;
+	public static final int KILLERS = 2;
+	public static final int HISTORY = 4;
+	public static final int ALL_ORDERING = THREATS | KILLERS | HISTORY;
+
+	// sort keys: threats outweigh killers, which outweigh history
+	private static final int THREAT_SHIFT = 22;
+	private static final int FIRST_KILLER = 2 << 20;
+	private static final int SECOND_KILLER = 1 << 20;
+	private static final int HISTORY_MAX = (1 << 20) - 1;
+	private static final long LEFT_HALF = leftHalfMask();
+
+	private final int depth;
+	private final TranspositionTable table;
+	private final int[] order;
+	private BitBoard board;
+	private long nodes;
+	private long elapsedNanos;
+	private int score;
+	private volatile boolean stopped;
+	private boolean aborted;
+	// System.nanoTime after which searches give up
+	private long deadline = Long.MAX_VALUE;
+	private PositionDatabase database;
+
+	private int ordering = THREATS;
+	// moves[ply] and keys[ply] hold the sorted moves of the node at that ply
+	private final int[][] moves = new int[CELLS + 1][BitBoard.COLUMNS];
+	private final int[][] keys = new int[CELLS + 1][BitBoard.COLUMNS];
+	// the two killer moves at each ply, -1 if none
+	private final int[] killers = new int[2 * (CELLS + 1)];
+	// indexed by the color to move and the bit of the cell played
+	private final int[] history = new int[2 * Long.SIZE];
+
+	/**
+	 * @param depth how many moves ahead to search, or UNLIMITED to play perfectly
+	 */
+	public NegamaxPlayer(int depth) {
+		this(depth, new TranspositionTable(TranspositionTable.DEFAULT_MEGABYTES));
+	}
+
+	/**
+	 * @param depth how many moves ahead to search, or UNLIMITED to play perfectly
+	 * @param table the table to cache search results in
+	 */
+	public NegamaxPlayer(int depth, TranspositionTable table) {
+		this(depth, table, ORDER);
+	}
+
+	/**
+	 * Creates a searcher that tries moves in a different order after the one the
+	 * table remembers. Used by ParallelSearchPlayer so its threads spread out over
+	 * different parts of the tree.
+	 *
+	 * @param order every column, in the order they should be tried
+	 */
+	NegamaxPlayer(int depth, TranspositionTable table, int[] order) {
+		this.depth = depth;
+		this.table = table;
+		this.order = order;
+	}
+
+	@Override
+	public int chooseMove(BitBoard board) {
+		return chooseMove(board, depth);
+	}
+
+	/**
+	 * Picks the next move, searching @param depth moves ahead instead of the depth
+	 * the player was created with. Used by TimedSearchPlayer to search deeper one
+	 * move at a time.
+	 *
+	 * @return a column that is not full
+	 */
+	public int chooseMove(BitBoard board, int depth) {
+		// always search the canonical side of a mirrored pair, so a position and
+		// its mirror image get exactly mirrored moves
+		if (board.isMirrorCanonical()) {
+			return BitBoard.COLUMNS - 1 - chooseMove(board.mirror(), depth);
+		}
+		long start = System.nanoTime();
+		this.board = board;
+		nodes = 0;
+		aborted = false;
+		clearOrdering();
+		// only a search that reaches the end of the game is worth storing
+		boolean exact = database != null && depth >= CELLS - board.getMoves();
+		if (exact) {
+			int entry = database.get(board);
+			if (entry != PositionDatabase.NONE && PositionDatabase.move(entry) >= 0) {
+				score = PositionDatabase.score(entry);
+				elapsedNanos = System.nanoTime() - start;
+				return PositionDatabase.move(entry);
+			}
+		}
+		int best = -1;
+		for (int col : order) {
+			if (board.canPlay(col) && board.isWinningMove(col)) {
+				best = col;
+				score = (CELLS + 1 - board.getMoves()) / 2;
+				break;
+			}
+		}
+		if (best == -1) {
+			long next = board.nonLosingMoves();
+			// if nothing can stop the opponent winning next turn
+			score = -(CELLS - board.getMoves()) / 2;
+			int alpha = -CELLS;
+			int beta = CELLS;
+			// if every move loses, at least play something legal
+			for (int col : order) {
+				if (board.canPlay(col)) {
+					best = col;
+					break;
+				}
+			}
+			// in a symmetric position the right half repeats the left
+			int count = sortMoves(board.isSymmetric() ? next & LEFT_HALF : next, -1);
+			int[] sorted = moves[board.getMoves()];
+			for (int i = 0; i < count; i++) {
+				int col = sorted[i];
+				board.play(col);
+				int score = -negamax(-beta, -alpha, depth - 1);
+				board.undo();
+				if (aborted) {
+					break;
+				}
+				if (score > alpha) {
+					alpha = score;
+					best = col;
+					this.score = score;
+				}
+			}
+		}
+		if (exact && !aborted) {
+			store(board, score, best);
+		}
+		elapsedNanos = System.nanoTime() - start;
+		return best;
+	}
+
+	/**
+	 * Works out the exact score of @param board by narrowing the possible range
+	 * with null window searches, which cut off far more than one wide search. The
+	 * game must not be over. If a position database is set, it is asked first.
+	 *
+	 * @return the score of the position for the player to move
+	 */
+	public int solve(BitBoard board) {
+		long start = System.nanoTime();
+		this.board = board;
+		nodes = 0;
+		aborted = false;
+		clearOrdering();
+		if (database != null) {
+			int entry = database.get(board);
+			if (entry != PositionDatabase.NONE) {
+				elapsedNanos = System.nanoTime() - start;
+				return PositionDatabase.score(entry);
+			}
+		}
+		int min = -(CELLS - board.getMoves()) / 2;
+		int max = (CELLS + 1 - board.getMoves()) / 2;
+		if (board.canWinNext()) {
+			min = max;
+		}
+		while (min < max) {
+			int med = min + (max - min) / 2;
+			// look closer to 0 first, since most positions are close to a draw
+			if (med <= 0 && min / 2 < med) {
+				med = min / 2;
+			} else if (med >= 0 && max / 2 > med) {
+				med = max / 2;
+			}
+			int score = negamax(med, med + 1, UNLIMITED);
+			if (aborted) {
+				break;
+			}
+			if (score <= med) {
+				max = score;
+			} else {
+				min = score;
+			}
+		}
+		if (database != null && !aborted) {
+			store(board, min, -1);
+		}
+		elapsedNanos = System.nanoTime() - start;
+		return min;
+	}
+
+	/**
+	 * Adds a solved position to the database
+	 */
+	private void store(BitBoard board, int score, int move) {
+		try {
+			database.put(board, score, move);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Searches the current position, assuming the player to move cannot win with
+	 * their next disc. Returns the exact score if it lies between @param alpha and
+	 * @param beta, otherwise a bound on the side of the window it fell on.
+	 *
+	 * @param depth how many more moves to search
+	 */
+	private int negamax(int alpha, int beta, int depth) {
+		// checking the volatile flag and the clock on every node would slow the
+		// search down
+		if ((++nodes & 1023) == 0 && (stopped || System.nanoTime() > deadline)) {
+			aborted = true;
+		}
+		if (aborted) {
+			return 0;
+		}
+		long next = board.nonLosingMoves();
+		if (next == 0) {
+			return -(CELLS - board.getMoves()) / 2;
+		}
+		if (board.getMoves() >= CELLS - 2) {
+			return 0;
+		}
+
+		// the opponent cannot win with their next disc, so this is the worst case
+		int min = -(CELLS - 2 - board.getMoves()) / 2;
+		if (alpha < min) {
+			alpha = min;
+			if (alpha >= beta) {
+				return alpha;
+			}
+		}
+		// and we cannot win with this one, so this is the best case
+		int max = (CELLS - 1 - board.getMoves()) / 2;
+		if (beta > max) {
+			beta = max;
+			if (alpha >= beta) {
+				return beta;
+			}
+		}
+		if (depth <= 0) {
+			return 0;
+		}
+
+		// a position and its mirror image share one entry, stored under the smaller
+		// key with the move as it is played in that orientation
+		long key = board.getKey();
+		long mirrorKey = board.getMirrorKey();
+		boolean flip = mirrorKey < key;
+		boolean symmetric = mirrorKey == key;
+		if (flip) {
+			key = mirrorKey;
+		}
+		int bestMove = -1;
+		long entry = table.probe(key);
+		if (entry != 0) {
+			if (TranspositionTable.depth(entry) >= depth) {
+				int score = TranspositionTable.score(entry);
+				int bound = TranspositionTable.bound(entry);
+				if (bound == TranspositionTable.EXACT) {
+					return score;
+				}
+				if (bound == TranspositionTable.LOWER && score > alpha) {
+					alpha = score;
+				} else if (bound == TranspositionTable.UPPER && score < beta) {
+					beta = score;
+				}
+				if (alpha >= beta) {
+					return score;
+				}
+			}
+			bestMove = TranspositionTable.move(entry);
+			if (flip && bestMove >= 0) {
+				bestMove = BitBoard.COLUMNS - 1 - bestMove;
+			}
+		}
+
+		int alphaStart = alpha;
+		int best = -CELLS;
+		int ply = board.getMoves();
+		int[] sorted = moves[ply];
+		int count = sortMoves(symmetric ? next & LEFT_HALF : next, bestMove);
+		for (int i = 0; i < count; i++) {
+			int col = sorted[i];
+			board.play(col);
+			int score = -negamax(-beta, -alpha, depth - 1);
+			board.undo();
+			// an aborted search result is meaningless, so do not cache it
+			if (aborted) {
+				return 0;
+			}
+			if (score > best) {
+				best = score;
+				bestMove = col;
+			}
+			if (score >= beta) {
+				rememberCutoff(ply, col, next & BitBoard.columnMask(col), depth);
+				table.store(key, depth, score, TranspositionTable.LOWER, flip ? BitBoard.COLUMNS - 1 - col : col);
+				return score;
+			}
+			if (score > alpha) {
+				alpha = score;
+			}
+		}
+		if (flip && bestMove >= 0) {
+			bestMove = BitBoard.COLUMNS - 1 - bestMove;
+		}
+		table.store(key, depth, alpha, alpha > alphaStart ? TranspositionTable.EXACT : TranspositionTable.UPPER,
+				bestMove);
+		return alpha;
+	}
+
+	/**
+	 * Sorts the moves in @param next, a mask of landing cells, into moves[ply]
+	 * with the most promising first. @param first, the move the table remembers,
+	 * always goes first if it is in the mask. Moves the heuristics cannot tell
+	 * apart stay in the searcher's column order.
+	 *
+	 * @return how many moves were sorted
+	 */
+	private int sortMoves(long next, int first) {
+		int ply = board.getMoves();
+		int[] sorted = moves[ply];
+		int[] sortKeys = keys[ply];
+		int count = 0;
+		if (first >= 0 && (next & BitBoard.columnMask(first)) != 0) {
+			sorted[0] = first;
+			sortKeys[0] = Integer.MAX_VALUE;
+			count = 1;
+		}
+		int side = (ply & 1) * Long.SIZE;
+		for (int col : order) {
+			long move = next & BitBoard.columnMask(col);
+			if (move == 0 || col == first) {
+				continue;
+			}
+			int key = 0;
+			if ((ordering & THREATS) != 0) {
+				key += board.countThreats(move) << THREAT_SHIFT;
+			}
+			if ((ordering & KILLERS) != 0) {
+				if (killers[2 * ply] == col) {
+					key += FIRST_KILLER;
+				} else if (killers[2 * ply + 1] == col) {
+					key += SECOND_KILLER;
+				}
+			}
+			if ((ordering & HISTORY) != 0) {
+				key += history[side + Long.numberOfTrailingZeros(move)];
+			}
+			// insertion sort, after any moves with the same key
+			int i = count++;
+			while (i > 0 && sortKeys[i - 1] < key) {
+				sorted[i] = sorted[i - 1];
+				sortKeys[i] = sortKeys[i - 1];
+				i--;
+			}
+			sorted[i] = col;
+			sortKeys[i] = key;
+		}
+		return count;
+	}
+
+	/**
+	 * Records that playing @param col, landing on the cell in @param move, at
+	 * @param ply caused a cutoff with @param depth moves left to search
+	 */
+	private void rememberCutoff(int ply, int col, long move, int depth) {
+		if (killers[2 * ply] != col) {
+			killers[2 * ply + 1] = killers[2 * ply];
+			killers[2 * ply] = col;
+		}
+		// cutoffs far from the leaves save more work, so they count for more
+		int cell = (ply & 1) * Long.SIZE + Long.numberOfTrailingZeros(move);
+		history[cell] += depth * depth;
+		if (history[cell] > HISTORY_MAX) {
+			for (int i = 0; i < history.length; i++) {
+				history[i] >>= 1;
+			}
+		}
+	}
+
+	private void clearOrdering() {
+		Arrays.fill(killers, -1);
+		Arrays.fill(history, 0);
+	}
+
+	/**
+	 * Chooses the heuristics used to sort moves, any of THREATS, KILLERS and
+	 * HISTORY combined, or CENTER_ONLY to try them from the center out. Only
+	 * THREATS is used by default, see MoveOrderingBenchmark for how they compare.
+	 */
+	public void setOrdering(int ordering) {
+		this.ordering = ordering;
+	}
+
+	/**
+	 * Makes a search running on another thread give up as soon as possible. Its
+	 * result should be thrown away, and nothing it was still working on is cached.
+	 * The player stays stopped until resume is called.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Makes searches give up once System.nanoTime passes @param deadline, as if
+	 * stop had been called then. Long.MAX_VALUE, the default, means never.
+	 */
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Lets searches run to completion again after stop was called
+	 */
+	public void resume() {
+		stopped = false;
+	}
+
+	/**
+	 * @return whether the last search was cut short by stop or the deadline
+	 */
+	public boolean wasAborted() {
+		return aborted;
+	}
+
+	/**
+	 * @return the score chooseMove found for the move it picked last time, exact
+	 *         only if the search reached the end of the game
+	 */
+	public int getScore() {
+		return score;
+	}
+
+	/**
+	 * @return the number of positions visited by the last search
+	 */
+	public long getNodeCount() {
+		return nodes;
+	}
+
+	/**
+	 * @return how long the last search took, in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return how many positions per second the last search visited
+	 */
+	public long getNodesPerSecond() {
+		return elapsedNanos == 0 ? 0 : nodes * 1_000_000_000L / elapsedNanos;
+	}
+
+	/**
+	 * Looks up solved positions in @param database before searching them, and
+	 * stores every position solved to the end of the game in it. Searches cut off
+	 * by the depth limit are never stored.
+	 */
+	public void setDatabase(PositionDatabase database) {
+		this.database = database;
+	}
+
+	/**
+	 * @return the table search results are cached in
+	 */
+	public TranspositionTable getTable() {
+		return table;
+	}
+
+	/**
+	 * @return the columns ordered from the center outwards, e.g. 3 2 4 1 5 0 6
+	 */
+	static int[] centerFirstOrder() {
+		int[] order = new int[BitBoard.COLUMNS];
+		for (int i = 0; i < BitBoard.COLUMNS; i++) {
+			order[i] = BitBoard.COLUMNS / 2 + (1 - 2 * (i % 2)) * (i + 1) / 2;
+		}
+		return order;
+	}
+
+	/**
+	 * @return a mask of every cell in the left half of the board, including the
+	 *         center column
+	 */
+	private static long leftHalfMask() {
+		long mask = 0;
+		for (int col = 0; col <= BitBoard.COLUMNS / 2; col++) {
+			mask |= BitBoard.columnMask(col);
+		}
+		return mask;
+	}
+
+	/**
+	 * Solves the position reached by the move sequence in args[0] (columns
+	 * numbered from 1, empty for the starting position) and prints the score along
+	 * with how fast the search ran, so the hardware the solver runs on can be sized.
+	 * With -Dconnect4.positions=<dir> the position database in dir is asked first,
+	 * and the result is stored in it.
+	 */
+	public static void main(String[] args) {
+		BitBoard board = BitBoard.fromMoves(args.length > 0 ? args[0] : "");
+		int megabytes = Integer.getInteger("connect4.ttMegabytes", TranspositionTable.DEFAULT_MEGABYTES);
+		NegamaxPlayer solver = new NegamaxPlayer(UNLIMITED, new TranspositionTable(megabytes));
+		String positions = System.getProperty("connect4.positions");
+		PositionDatabase database = null;
+		if (positions != null) {
+			try {
+				database = PositionDatabase.open(Paths.get(positions));
+				solver.setDatabase(database);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		int score = solver.solve(board);
+		System.out.println("score: " + score);
+		System.out.println("nodes: " + solver.getNodeCount());
+		System.out.println("time: " + solver.getElapsedNanos() / 1_000_000 + " ms");
+		System.out.println("nodes/sec: " + solver.getNodesPerSecond());
+		TranspositionTable table = solver.getTable();
+		System.out.println("table hits/misses/collisions: " + table.getHits() + "/" + table.getMisses() + "/"
+				+ table.getCollisions());
+		if (database != null) {
+			System.out.printf("database lookups %d, hit rate %.2f, mean lookup %d ns%n", database.getLookups(),
+					database.getHitRate(), database.getMeanLookupNanos());
+			try {
+				database.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
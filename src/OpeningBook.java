@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only opening book of precomputed moves, written by
+ * OpeningBookGenerator.
+ *
+ * The file is memory-mapped rather than read in, so opening a book costs
+ * nothing up front and its entries never take up heap space. It starts with a
+ * header, followed by fixed-size records sorted by position key, so a lookup is
+ * a binary search straight over the mapped file.
+ *
+ * File layout, all big-endian:
+ *
+ * <pre>
+ * header:  int MAGIC, int VERSION, int columns, int rows, int record count
+ * records: long canonical position key, byte best column, byte score
+ * </pre>
+ *
+ * A position and its mirror image share one record, keyed by
+ * BitBoard.getCanonicalKey and holding the best column for the canonical
+ * orientation, so the book is half the size it would otherwise be.
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class OpeningBook {
+	public static final int MAGIC = 0x43344243; // "C4BC"
+	public static final int VERSION = 2;
+	public static final int HEADER_BYTES = 5 * Integer.BYTES;
+	public static final int RECORD_BYTES = Long.BYTES + 2;
+
+	private final ByteBuffer records;
+	private final int size;
+
+	private OpeningBook(ByteBuffer records, int size) {
+		this.records = records;
+		this.size = size;
+	}
+
+	/**
+	 * Memory-maps the book at @param path
+	 *
+	 * @return the opened book
+	 * @throws IOException if the file cannot be read, is not an opening book, or
+	 *                     was made for a different board size
+	 */
+	public static OpeningBook open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			file.order(ByteOrder.BIG_ENDIAN);
+			if (file.limit() < HEADER_BYTES || file.getInt(0) != MAGIC) {
+				throw new IOException(path + " is not an opening book");
+			}
+			if (file.getInt(4) != VERSION) {
+				throw new IOException(path + " has unsupported book version " + file.getInt(4));
+			}
+			if (file.getInt(8) != BitBoard.COLUMNS || file.getInt(12) != BitBoard.ROWS) {
+				throw new IOException(path + " was made for a " + file.getInt(8) + "x" + file.getInt(12) + " board");
+			}
+			int size = file.getInt(16);
+			if (file.limit() != HEADER_BYTES + (long) size * RECORD_BYTES) {
+				throw new IOException(path + " is truncated");
+			}
+			file.position(HEADER_BYTES);
+			// the mapping stays valid after the channel is closed
+			return new OpeningBook(file.slice(), size);
+		}
+	}
+
+	/**
+	 * Binary searches the book for @param key
+	 *
+	 * @return the index of the record, or -1 if the position is not in the book
+	 */
+	private int find(long key) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midKey = records.getLong(mid * RECORD_BYTES);
+			if (midKey < key) {
+				low = mid + 1;
+			} else if (midKey > key) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param board a position
+	 * @return the best column for the player to move, or -1 if the position is
+	 *         not in the book
+	 */
+	public int getMove(BitBoard board) {
+		int index = find(board.getCanonicalKey());
+		if (index < 0) {
+			return -1;
+		}
+		int move = records.get(index * RECORD_BYTES + Long.BYTES);
+		return board.isMirrorCanonical() ? BitBoard.COLUMNS - 1 - move : move;
+	}
+
+	/**
+	 * @param board a position that is in the book
+	 * @return the score of the position for the player to move, as defined by
+	 *         NegamaxPlayer
+	 */
+	public int getScore(BitBoard board) {
+		int index = find(board.getCanonicalKey());
+		if (index < 0) {
+			throw new IllegalArgumentException("Position is not in the book");
+		}
+		return records.get(index * RECORD_BYTES + Long.BYTES + 1);
+	}
+
+	/**
+	 * @return the number of positions in the book
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,108 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds an opening book file for OpeningBook.
+ *
+ * Walks every position reachable within the first few moves, searches each one
+ * with a NegamaxPlayer and writes the best move and its score, sorted by
+ * canonical position key. Mirror images are only searched once. Entries are
+ * packed as (move << 8) | (score & 0xFF) while the book is being built.
+ * Positions where the game is already over are left out.
+ *
+ * Usage: java OpeningBookGenerator file bookDepth [searchDepth] [tableMegabytes]
+ *
+ * bookDepth is how many moves into the game the book covers, and searchDepth is
+ * how far each position is searched (unlimited by default, which solves them
+ * exactly but takes a long time for the first few moves).
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class OpeningBookGenerator {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: java OpeningBookGenerator file bookDepth [searchDepth] [tableMegabytes]");
+			System.exit(1);
+		}
+		String file = args[0];
+		int bookDepth = Integer.parseInt(args[1]);
+		int searchDepth = args.length > 2 ? Integer.parseInt(args[2]) : NegamaxPlayer.UNLIMITED;
+		int megabytes = args.length > 3 ? Integer.parseInt(args[3]) : TranspositionTable.DEFAULT_MEGABYTES;
+
+		List<List<BitBoard>> levels = new ArrayList<>();
+		levels.add(Arrays.asList(new BitBoard()));
+		for (int depth = 1; depth < bookDepth; depth++) {
+			levels.add(expand(levels.get(depth - 1)));
+		}
+
+		Map<Long, Integer> entries = new HashMap<>();
+		NegamaxPlayer searcher = new NegamaxPlayer(searchDepth, new TranspositionTable(megabytes));
+		long start = System.nanoTime();
+		// deepest positions first, so the shallower searches can reuse the table
+		for (int depth = levels.size() - 1; depth >= 0; depth--) {
+			for (BitBoard board : levels.get(depth)) {
+				int move = searcher.chooseMove(board);
+				if (board.isMirrorCanonical()) {
+					move = BitBoard.COLUMNS - 1 - move;
+				}
+				entries.put(board.getCanonicalKey(), move << 8 | (searcher.getScore() & 0xFF));
+			}
+			System.out.println("depth " + depth + ": " + levels.get(depth).size() + " positions, "
+					+ (System.nanoTime() - start) / 1_000_000 + " ms");
+		}
+
+		long[] keys = new long[entries.size()];
+		int i = 0;
+		for (long key : entries.keySet()) {
+			keys[i++] = key;
+		}
+		Arrays.sort(keys);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(OpeningBook.MAGIC);
+			out.writeInt(OpeningBook.VERSION);
+			out.writeInt(BitBoard.COLUMNS);
+			out.writeInt(BitBoard.ROWS);
+			out.writeInt(keys.length);
+			for (long key : keys) {
+				int entry = entries.get(key);
+				out.writeLong(key);
+				out.writeByte(entry >> 8);
+				out.writeByte(entry);
+			}
+		}
+		System.out.println("wrote " + keys.length + " positions to " + file);
+	}
+
+	/**
+	 * @return every distinct position one move on from @param positions, counting
+	 *         a position and its mirror image once and leaving out moves that end
+	 *         the game
+	 */
+	private static List<BitBoard> expand(List<BitBoard> positions) {
+		Set<Long> seen = new HashSet<>();
+		List<BitBoard> next = new ArrayList<>();
+		for (BitBoard board : positions) {
+			for (int col = 0; col < BitBoard.COLUMNS; col++) {
+				if (board.canPlay(col) && !board.isWinningMove(col)) {
+					BitBoard child = new BitBoard(board);
+					child.play(col);
+					if (seen.add(child.getCanonicalKey())) {
+						next.add(child);
+					}
+				}
+			}
+		}
+		return next;
+	}
+}
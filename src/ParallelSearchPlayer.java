@@ -0,0 +1,164 @@
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computer player that searches on several threads at once using Lazy SMP.
+ *
+ * Every thread runs its own NegamaxPlayer over the same position, and they all
+ * share one TranspositionTable. The helper threads try their moves in a
+ * different order from the main search, so they fill the table with results the
+ * main search has not reached yet and it can skip those parts of the tree. The
+ * answer always comes from the main search, which runs on the calling thread;
+ * once it finishes the helpers are stopped.
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class ParallelSearchPlayer implements ComputerPlayer {
+	private final NegamaxPlayer[] searchers;
+	private final ExecutorService helpers;
+	private final TranspositionTable table;
+	private long nodes;
+	private long elapsedNanos;
+
+	/**
+	 * @param depth   how many moves ahead to search, or NegamaxPlayer.UNLIMITED
+	 * @param threads how many threads to search with, including the caller's
+	 * @param table   the table shared by every thread
+	 */
+	public ParallelSearchPlayer(int depth, int threads, TranspositionTable table) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Need at least one search thread, got " + threads);
+		}
+		this.table = table;
+		searchers = new NegamaxPlayer[threads];
+		int[] order = NegamaxPlayer.centerFirstOrder();
+		for (int i = 0; i < threads; i++) {
+			searchers[i] = new NegamaxPlayer(depth, table, rotate(order, i));
+		}
+		helpers = Executors.newFixedThreadPool(Math.max(1, threads - 1), runnable -> {
+			Thread thread = new Thread(runnable, "search-helper");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public int chooseMove(BitBoard board) {
+		long start = System.nanoTime();
+		Future<?>[] running = startHelpers(board, false);
+		int move = searchers[0].chooseMove(board);
+		finish(running, start);
+		return move;
+	}
+
+	/**
+	 * Works out the exact score of @param board. The game must not be over.
+	 *
+	 * @return the score of the position for the player to move
+	 * @see NegamaxPlayer#solve(BitBoard)
+	 */
+	public int solve(BitBoard board) {
+		long start = System.nanoTime();
+		Future<?>[] running = startHelpers(board, true);
+		int score = searchers[0].solve(board);
+		finish(running, start);
+		return score;
+	}
+
+	private Future<?>[] startHelpers(BitBoard board, boolean solve) {
+		Future<?>[] running = new Future<?>[searchers.length - 1];
+		for (int i = 1; i < searchers.length; i++) {
+			NegamaxPlayer helper = searchers[i];
+			BitBoard copy = new BitBoard(board);
+			helper.resume();
+			running[i - 1] = helpers.submit(() -> {
+				if (solve) {
+					helper.solve(copy);
+				} else {
+					helper.chooseMove(copy);
+				}
+			});
+		}
+		return running;
+	}
+
+	/**
+	 * Stops the helpers and waits for them, so none of them is still searching
+	 * when the next move is asked for
+	 */
+	private void finish(Future<?>[] running, long start) {
+		for (int i = 1; i < searchers.length; i++) {
+			searchers[i].stop();
+		}
+		nodes = searchers[0].getNodeCount();
+		for (int i = 0; i < running.length; i++) {
+			try {
+				running[i].get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+			nodes += searchers[i + 1].getNodeCount();
+		}
+		elapsedNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 * @return @param order shifted left by @param shift places
+	 */
+	private static int[] rotate(int[] order, int shift) {
+		int[] rotated = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			rotated[i] = order[(i + shift) % order.length];
+		}
+		return rotated;
+	}
+
+	/**
+	 * Shuts down the helper threads. The player cannot be used afterwards.
+	 */
+	@Override
+	public void close() {
+		helpers.shutdownNow();
+	}
+
+	/**
+	 * @return the number of search threads
+	 */
+	public int getThreads() {
+		return searchers.length;
+	}
+
+	/**
+	 * @return the number of positions visited by all threads in the last search
+	 */
+	public long getNodeCount() {
+		return nodes;
+	}
+
+	/**
+	 * @return how long the last search took, in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return how many positions per second all threads together visited in the
+	 *         last search
+	 */
+	public long getNodesPerSecond() {
+		return elapsedNanos == 0 ? 0 : nodes * 1_000_000_000L / elapsedNanos;
+	}
+
+	/**
+	 * @return the table shared by the search threads
+	 */
+	public TranspositionTable getTable() {
+		return table;
+	}
+}
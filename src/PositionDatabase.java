@@ -0,0 +1,435 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Persistent store of solved positions, so a position solved in one game never
+ * has to be searched again in the next.
+ *
+ * Positions are keyed by BitBoard.getCanonicalKey, so a position and its mirror
+ * image share one record. Stored moves are for the canonical orientation and
+ * are mirrored back on the way in and out.
+ *
+ * New results are collected in memory and written out in batches, each as a new
+ * segment file sorted by key. Segments are never changed once written, only
+ * memory-mapped and searched, newest first. Every segment keeps every 64th key
+ * on the heap, so a lookup binary searches that index and then one block of
+ * the mapped file. Once there are too many segments they are merged into one.
+ *
+ * Segment layout, all big-endian, in files named positions-NNNNNN.seg:
+ *
+ * <pre>
+ * header:  int MAGIC, int VERSION, int columns, int rows, int record count
+ * records: long canonical key, byte best column (0xFF if unknown), byte score
+ * </pre>
+ *
+ * Lookups are timed, and the number of lookups, the hit rate and the mean lookup
+ * latency can be read back.
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class PositionDatabase implements Closeable {
+	public static final int MAGIC = 0x43345044; // "C4PD"
+	public static final int VERSION = 1;
+	public static final int HEADER_BYTES = 5 * Integer.BYTES;
+	public static final int RECORD_BYTES = Long.BYTES + 2;
+	public static final int DEFAULT_BATCH = 1024;
+	// returned by get when the position has not been solved
+	public static final int NONE = -1;
+
+	// merge every segment into one once there are more than this many
+	private static final int MAX_SEGMENTS = 8;
+	// one key in each segment's in-memory index for every this many records
+	private static final int INDEX_STRIDE = 64;
+	private static final int UNKNOWN_MOVE = 0xFF;
+
+	private final Path directory;
+	private final int batchSize;
+	// results not yet written out, by canonical key
+	private final TreeMap<Long, Integer> pending;
+	// newest first
+	private final ArrayList<Segment> segments;
+	private int nextSegment;
+
+	private long lookups;
+	private long hits;
+	private long lookupNanos;
+	private long writes;
+
+	/**
+	 * One memory-mapped segment file
+	 */
+	private static class Segment {
+		final Path path;
+		final ByteBuffer records;
+		final int size;
+		// the key of every INDEX_STRIDE-th record
+		final long[] index;
+
+		Segment(Path path, ByteBuffer records, int size) {
+			this.path = path;
+			this.records = records;
+			this.size = size;
+			this.index = new long[(size + INDEX_STRIDE - 1) / INDEX_STRIDE];
+			for (int i = 0; i < index.length; i++) {
+				index[i] = key(i * INDEX_STRIDE);
+			}
+		}
+
+		long key(int record) {
+			return records.getLong(record * RECORD_BYTES);
+		}
+
+		int entry(int record) {
+			return records.getShort(record * RECORD_BYTES + Long.BYTES) & 0xFFFF;
+		}
+
+		/**
+		 * @return the entry stored for @param key, or NONE
+		 */
+		int find(long key) {
+			int block = Arrays.binarySearch(index, key);
+			if (block >= 0) {
+				return entry(block * INDEX_STRIDE);
+			}
+			// the block whose first key is below the key
+			block = -block - 2;
+			if (block < 0) {
+				return NONE;
+			}
+			int low = block * INDEX_STRIDE + 1;
+			int high = Math.min(size, low + INDEX_STRIDE - 1) - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				long midKey = key(mid);
+				if (midKey < key) {
+					low = mid + 1;
+				} else if (midKey > key) {
+					high = mid - 1;
+				} else {
+					return entry(mid);
+				}
+			}
+			return NONE;
+		}
+	}
+
+	private PositionDatabase(Path directory, int batchSize) {
+		this.directory = directory;
+		this.batchSize = batchSize;
+		this.pending = new TreeMap<>();
+		this.segments = new ArrayList<>();
+	}
+
+	/**
+	 * Opens the database in @param directory, creating it if it does not exist
+	 *
+	 * @param batchSize how many new results to collect before writing a segment
+	 * @return the opened database
+	 * @throws IOException if a segment cannot be read, is not part of a position
+	 *                     database, or was made for a different board size
+	 */
+	public static PositionDatabase open(Path directory, int batchSize) throws IOException {
+		Files.createDirectories(directory);
+		PositionDatabase database = new PositionDatabase(directory, batchSize);
+		ArrayList<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> listing = Files.newDirectoryStream(directory, "positions-*")) {
+			for (Path file : listing) {
+				if (file.toString().endsWith(".tmp")) {
+					// left behind by a crash before it was finished
+					Files.delete(file);
+				} else {
+					files.add(file);
+				}
+			}
+		}
+		// names are zero padded, so the newest sorts last
+		files.sort(null);
+		for (Path file : files) {
+			database.segments.add(0, map(file));
+			database.nextSegment = Math.max(database.nextSegment, number(file) + 1);
+		}
+		return database;
+	}
+
+	/**
+	 * Opens the database in @param directory with the default batch size
+	 */
+	public static PositionDatabase open(Path directory) throws IOException {
+		return open(directory, DEFAULT_BATCH);
+	}
+
+	private static int number(Path file) {
+		String name = file.getFileName().toString();
+		return Integer.parseInt(name.substring("positions-".length(), name.length() - ".seg".length()));
+	}
+
+	private static Segment map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			file.order(ByteOrder.BIG_ENDIAN);
+			if (file.limit() < HEADER_BYTES || file.getInt(0) != MAGIC) {
+				throw new IOException(path + " is not a position database segment");
+			}
+			if (file.getInt(4) != VERSION) {
+				throw new IOException(path + " has unsupported segment version " + file.getInt(4));
+			}
+			if (file.getInt(8) != BitBoard.COLUMNS || file.getInt(12) != BitBoard.ROWS) {
+				throw new IOException(path + " was made for a " + file.getInt(8) + "x" + file.getInt(12) + " board");
+			}
+			int size = file.getInt(16);
+			if (file.limit() != HEADER_BYTES + (long) size * RECORD_BYTES) {
+				throw new IOException(path + " is truncated");
+			}
+			file.position(HEADER_BYTES);
+			// the mapping stays valid after the channel is closed
+			return new Segment(path, file.slice(), size);
+		}
+	}
+
+	/**
+	 * Looks up @param board, which must not be over
+	 *
+	 * @return the stored entry, to be read with score and move, or NONE if the
+	 *         position has not been solved
+	 */
+	public synchronized int get(BitBoard board) {
+		long start = System.nanoTime();
+		long key = board.getCanonicalKey();
+		Integer waiting = pending.get(key);
+		int entry = waiting != null ? waiting : NONE;
+		for (int i = 0; entry == NONE && i < segments.size(); i++) {
+			entry = segments.get(i).find(key);
+		}
+		lookupNanos += System.nanoTime() - start;
+		lookups++;
+		if (entry == NONE) {
+			return NONE;
+		}
+		hits++;
+		return board.isMirrorCanonical() ? mirror(entry) : entry;
+	}
+
+	/**
+	 * Stores the result of solving @param board. Written to disk with the next
+	 * batch.
+	 *
+	 * @param score the exact score of the position, as defined by NegamaxPlayer
+	 * @param move  the best column, or -1 if only the score is known
+	 */
+	public synchronized void put(BitBoard board, int score, int move) throws IOException {
+		int entry = (move < 0 ? UNKNOWN_MOVE : move) << 8 | score & 0xFF;
+		if (board.isMirrorCanonical()) {
+			entry = mirror(entry);
+		}
+		long key = board.getCanonicalKey();
+		Integer waiting = pending.get(key);
+		// do not forget a move that is already known
+		if (waiting != null && move(waiting) >= 0 && move < 0) {
+			return;
+		}
+		pending.put(key, entry);
+		writes++;
+		if (pending.size() >= batchSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * @return the score stored in @param entry
+	 */
+	public static int score(int entry) {
+		return (byte) entry;
+	}
+
+	/**
+	 * @return the best column stored in @param entry, or -1 if only the score is
+	 *         known
+	 */
+	public static int move(int entry) {
+		int move = entry >> 8 & 0xFF;
+		return move == UNKNOWN_MOVE ? -1 : move;
+	}
+
+	private static int mirror(int entry) {
+		int move = move(entry);
+		return move < 0 ? entry : (BitBoard.COLUMNS - 1 - move) << 8 | entry & 0xFF;
+	}
+
+	/**
+	 * Writes every pending result out as a new segment, then merges the segments
+	 * if there are too many
+	 */
+	public synchronized void flush() throws IOException {
+		if (pending.isEmpty()) {
+			return;
+		}
+		SegmentWriter writer = new SegmentWriter();
+		for (Map.Entry<Long, Integer> result : pending.entrySet()) {
+			writer.add(result.getKey(), result.getValue());
+		}
+		segments.add(0, writer.finish());
+		pending.clear();
+		if (segments.size() > MAX_SEGMENTS) {
+			compact();
+		}
+	}
+
+	/**
+	 * Merges every segment into one, keeping the newest result for each key
+	 */
+	private void compact() throws IOException {
+		SegmentWriter writer = new SegmentWriter();
+		int[] next = new int[segments.size()];
+		while (true) {
+			long key = Long.MAX_VALUE;
+			int newest = -1;
+			for (int i = 0; i < next.length; i++) {
+				Segment segment = segments.get(i);
+				if (next[i] < segment.size && segment.key(next[i]) < key) {
+					key = segment.key(next[i]);
+					newest = i;
+				}
+			}
+			if (newest < 0) {
+				break;
+			}
+			writer.add(key, segments.get(newest).entry(next[newest]));
+			for (int i = 0; i < next.length; i++) {
+				Segment segment = segments.get(i);
+				if (next[i] < segment.size && segment.key(next[i]) == key) {
+					next[i]++;
+				}
+			}
+		}
+		Segment merged = writer.finish();
+		for (Segment segment : segments) {
+			try {
+				Files.delete(segment.path);
+			} catch (IOException e) {
+				// still mapped on some platforms, the merged segment shadows it
+				e.printStackTrace();
+			}
+		}
+		segments.clear();
+		segments.add(merged);
+	}
+
+	/**
+	 * Writes one segment, sorted records at a time, to a temporary file that is
+	 * renamed into place once it is complete
+	 */
+	private class SegmentWriter {
+		private final Path target;
+		private final Path temp;
+		private final DataOutputStream out;
+		private int count;
+
+		SegmentWriter() throws IOException {
+			target = directory.resolve(String.format("positions-%06d.seg", nextSegment++));
+			temp = directory.resolve(target.getFileName() + ".tmp");
+			out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(BitBoard.COLUMNS);
+			out.writeInt(BitBoard.ROWS);
+			// the record count, filled in by finish
+			out.writeInt(0);
+		}
+
+		void add(long key, int entry) throws IOException {
+			out.writeLong(key);
+			out.writeShort(entry);
+			count++;
+		}
+
+		Segment finish() throws IOException {
+			out.close();
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				ByteBuffer size = ByteBuffer.allocate(Integer.BYTES).putInt(count);
+				size.flip();
+				channel.write(size, HEADER_BYTES - Integer.BYTES);
+				channel.force(true);
+			}
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+			return map(target);
+		}
+	}
+
+	/**
+	 * Writes out any pending results
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+
+	/**
+	 * @return how many times get has been called
+	 */
+	public synchronized long getLookups() {
+		return lookups;
+	}
+
+	/**
+	 * @return how many lookups found the position
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the fraction of lookups that found the position
+	 */
+	public synchronized double getHitRate() {
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	/**
+	 * @return the average time a lookup took, in nanoseconds
+	 */
+	public synchronized long getMeanLookupNanos() {
+		return lookups == 0 ? 0 : lookupNanos / lookups;
+	}
+
+	/**
+	 * @return how many results have been stored
+	 */
+	public synchronized long getWrites() {
+		return writes;
+	}
+
+	/**
+	 * @return the number of segment files
+	 */
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * @return the number of records in all segments, counting a position once for
+	 *         every segment it is in
+	 */
+	public synchronized long getStoredCount() {
+		long count = 0;
+		for (Segment segment : segments) {
+			count += segment.size;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,140 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Compares GameProtocol with the Java serialization of Connect4MoveMessage that
+ * games used to send moves with.
+ *
+ * For each format, sends moves back and forth over a loopback socket to an echo
+ * thread, and prints the bytes each move takes on the wire (including the stream
+ * header and handshake, spread over every move) and the average round trip
+ * time.
+ *
+ * Usage: java ProtocolBenchmark [moves]
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class ProtocolBenchmark {
+
+	/**
+	 * Counts the bytes written through it
+	 */
+	static class CountingOutputStream extends FilterOutputStream {
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	/**
+	 * One side of a connection in a particular format
+	 */
+	interface Endpoint {
+		void send(int col) throws IOException;
+
+		int receive() throws IOException;
+	}
+
+	/**
+	 * Creates an Endpoint for one format over a socket
+	 */
+	interface Format {
+		Endpoint open(Socket socket, CountingOutputStream out) throws IOException;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int moves = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+		System.out.printf("%-14s %12s %16s%n", "format", "bytes/move", "round trip us");
+
+		run("serialization", moves, (socket, out) -> {
+			ObjectOutputStream output = new ObjectOutputStream(out);
+			output.flush();
+			ObjectInputStream input = new ObjectInputStream(socket.getInputStream());
+			return new Endpoint() {
+				public void send(int col) throws IOException {
+					output.writeObject(new Connect4MoveMessage(0, col, 1));
+					output.flush();
+				}
+
+				public int receive() throws IOException {
+					try {
+						return ((Connect4MoveMessage) input.readObject()).getColumn();
+					} catch (ClassNotFoundException e) {
+						throw new IOException(e);
+					}
+				}
+			};
+		});
+
+		run("binary", moves, (socket, out) -> {
+			GameProtocol protocol = new GameProtocol(socket.getInputStream(), out);
+			protocol.handshake();
+			return new Endpoint() {
+				public void send(int col) throws IOException {
+					protocol.sendMove(col);
+				}
+
+				public int receive() throws IOException {
+					return protocol.readMove();
+				}
+			};
+		});
+	}
+
+	/**
+	 * Sends @param moves moves in @param format to an echo thread, waiting for each
+	 * one to come back before sending the next, and prints the results
+	 */
+	private static void run(String name, int moves, Format format) throws Exception {
+		try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			Thread echo = new Thread(() -> {
+				try (Socket socket = server.accept()) {
+					socket.setTcpNoDelay(true);
+					Endpoint endpoint = format.open(socket, new CountingOutputStream(socket.getOutputStream()));
+					for (int i = 0; i < moves; i++) {
+						endpoint.send(endpoint.receive());
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			});
+			echo.start();
+
+			try (Socket socket = new Socket(server.getInetAddress(), server.getLocalPort())) {
+				socket.setTcpNoDelay(true);
+				CountingOutputStream out = new CountingOutputStream(socket.getOutputStream());
+				Endpoint endpoint = format.open(socket, out);
+				long start = System.nanoTime();
+				for (int i = 0; i < moves; i++) {
+					endpoint.send(i % BitBoard.COLUMNS);
+					if (endpoint.receive() != i % BitBoard.COLUMNS) {
+						throw new IOException("Echoed the wrong move");
+					}
+				}
+				long elapsed = System.nanoTime() - start;
+				System.out.printf("%-14s %12.2f %16.1f%n", name, (double) out.count / moves, elapsed / 1000.0 / moves);
+			}
+			echo.join();
+		}
+	}
+}
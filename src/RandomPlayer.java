@@ -0,0 +1,31 @@
+import java.util.Random;
+
+/**
+ * Computer player that drops its disc in a random column that still has room.
+ * 
+ * @author Yosef Jacobson
+ *
+ */
+public class RandomPlayer implements ComputerPlayer {
+	private final Random rand;
+
+	public RandomPlayer() {
+		this.rand = new Random();
+	}
+
+	/**
+	 * @param seed the seed for the random moves, so games can be repeated
+	 */
+	public RandomPlayer(long seed) {
+		this.rand = new Random(seed);
+	}
+
+	@Override
+	public int chooseMove(BitBoard board) {
+		int col = rand.nextInt(BitBoard.COLUMNS);
+		while (!board.canPlay(col)) {
+			col = rand.nextInt(BitBoard.COLUMNS);
+		}
+		return col;
+	}
+}
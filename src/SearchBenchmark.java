@@ -0,0 +1,47 @@
+/**
+ * Measures how much faster the parallel solver gets as threads are added.
+ *
+ * Solves a fixed set of positions once for every thread count, each time with a
+ * fresh transposition table, and prints the total time, the speedup over a
+ * single thread and the combined nodes per second. Each position is given as a
+ * move sequence with columns numbered from 1.
+ *
+ * Usage: java SearchBenchmark [maxThreads] [tableMegabytes]
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class SearchBenchmark {
+	// midgame positions that take a single thread between 0.1 and 3 seconds
+	private static final String[] POSITIONS = { "23423567221336", "77161144723571", "46764241147762",
+			"5233567647613513", "26544662543621", "35712331315227", "672656511711", "11747644263",
+			"17454462416", "63434544771" };
+
+	public static void main(String[] args) {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		int megabytes = args.length > 1 ? Integer.parseInt(args[1]) : TranspositionTable.DEFAULT_MEGABYTES;
+
+		System.out.println("threads\ttime ms\tspeedup\tnodes/sec");
+		long baseline = 0;
+		// doubling the threads each round, finishing on the exact maximum
+		for (int threads = 1; threads <= maxThreads; threads = threads == maxThreads ? threads + 1
+				: Math.min(threads * 2, maxThreads)) {
+			ParallelSearchPlayer solver = new ParallelSearchPlayer(NegamaxPlayer.UNLIMITED, threads,
+					new TranspositionTable(megabytes));
+			long nanos = 0;
+			long nodes = 0;
+			for (String moves : POSITIONS) {
+				solver.getTable().clear();
+				solver.solve(BitBoard.fromMoves(moves));
+				nanos += solver.getElapsedNanos();
+				nodes += solver.getNodeCount();
+			}
+			solver.close();
+			if (threads == 1) {
+				baseline = nanos;
+			}
+			System.out.printf("%d\t%d\t%.2f\t%d%n", threads, nanos / 1_000_000, (double) baseline / nanos,
+					nodes * 1_000_000_000L / nanos);
+		}
+	}
+}
@@ -0,0 +1,473 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Load test for spectators on GameServer: thousands of spectators watching a
+ * few live games in one process.
+ *
+ * Starts a GameServer and a few games between clients that play a random move
+ * every few milliseconds and often take it back again, and connects the
+ * spectators, spread evenly over the games. They are all read by one thread
+ * with its own Selector, so thousands of them cost no more than a socket each.
+ * Some spectators are slow: they have a small receive buffer and stop reading
+ * until their game is over. Every game opens with a burst of a few hundred
+ * moves played and taken back with no pause between, more frames than a
+ * stalled spectator's socket buffers can hold, so the server has to resync
+ * the slow ones with a snapshot. Others are chatty: they answer
+ * every frame with one of their own, which the server ignores, so their
+ * connections are still being read when the move that ends the game arrives
+ * and the server hangs up on them. Every spectator keeps its own board from
+ * the frames it receives, and once the server hangs up at the end of the game
+ * its board is checked against the one the players finished with. Once every
+ * game is over, the server must still be running and start a new game.
+ *
+ * Exits with status 1 if any spectator ended up with the wrong board, the
+ * games did not finish in time, no slow spectator was resynced, or the server
+ * stopped serving games.
+ *
+ * Prints the moves played, frames delivered to spectators, how many
+ * spectators were resynced and how many ended up with the wrong board, the
+ * time from a player sending a move to the normal spectators receiving it, and
+ * the bytes the server allocated for every frame it passed on.
+ *
+ * Usage: java SpectatorLoadTest [spectators] [games] [moveMillis] [slowPercent]
+ * [takeBackPercent] [timeoutSeconds] [chattyPercent]
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class SpectatorLoadTest {
+	private static final int CELLS = BitBoard.COLUMNS * BitBoard.ROWS;
+	// moves played and taken back straight away at the start of every game, as
+	// fast as the server passes them on. Their frames are more than a stalled
+	// spectator's socket buffers hold, so it falls behind.
+	private static final int BURST = 300;
+
+	/**
+	 * One spectator's connection and the board it has rebuilt
+	 */
+	private static class Watcher {
+		final int game;
+		final boolean slow;
+		final boolean chatty;
+		final SocketChannel channel;
+		final ByteBuffer in = ByteBuffer.allocate(256);
+		// what a chatty spectator has still to send
+		final ByteBuffer out = GameProtocol.emptyFrame(GameProtocol.WATCH);
+		BitBoard board = new BitBoard();
+		int syncs;
+		// the moves on its board once the server hung up
+		String moves;
+
+		Watcher(int game, boolean slow, boolean chatty, SocketChannel channel) {
+			this.game = game;
+			this.slow = slow;
+			this.chatty = chatty;
+			this.channel = channel;
+			out.position(out.limit());
+		}
+	}
+
+	// written by the players, read by the spectator thread
+	private static AtomicLongArray[] sentAt;
+	private static final String[] finalMoves = new String[1024];
+
+	private static long frames;
+	private static long chatter;
+	private static long resynced;
+	private static long wrong;
+	private static int synced;
+	// latency histogram, bucket i counts latencies below 2^i microseconds
+	private static final long[] latencies = new long[32];
+	private static long maxLatency;
+
+	public static void main(String[] args) throws Exception {
+		int spectators = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int games = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int moveMillis = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		int slowPercent = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+		int takeBackPercent = args.length > 4 ? Integer.parseInt(args[4]) : 50;
+		int timeoutSeconds = args.length > 5 ? Integer.parseInt(args[5]) : 120;
+		int chattyPercent = args.length > 6 ? Integer.parseInt(args[6]) : 10;
+		if (games < 1 || games > finalMoves.length) {
+			throw new IllegalArgumentException("Need 1 to " + finalMoves.length + " games, got " + games);
+		}
+
+		GameServer server = new GameServer(0, 0);
+		Thread serverThread = new Thread(() -> {
+			try {
+				server.run();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}, "game-server");
+		serverThread.setDaemon(true);
+		serverThread.start();
+
+		// pair the players one game at a time, so the server numbers the games in
+		// order from 1
+		sentAt = new AtomicLongArray[games + 1];
+		CountDownLatch go = new CountDownLatch(1);
+		CountDownLatch played = new CountDownLatch(2 * games);
+		Connection[] players = new Connection[2 * games];
+		for (int game = 1; game <= games; game++) {
+			sentAt[game] = new AtomicLongArray(CELLS + 1);
+			for (int i = 0; i < 2; i++) {
+				players[2 * game - 2 + i] = new Connection(new Socket(InetAddress.getLoopbackAddress(), server.getPort()));
+				players[2 * game - 2 + i].handshake();
+			}
+			for (int i = 0; i < 2; i++) {
+				Connection player = players[2 * game - 2 + i];
+				int seat = player.readStart();
+				int number = game;
+				Thread thread = new Thread(() -> play(player, seat, number, moveMillis, takeBackPercent, go, played),
+						"player");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+
+		long start = System.nanoTime();
+		Selector selector = Selector.open();
+		List<Watcher> watchers = new ArrayList<>();
+		for (int i = 0; i < spectators; i++) {
+			boolean slow = i % 100 < slowPercent;
+			boolean chatty = !slow && i % 100 >= 100 - chattyPercent;
+			SocketChannel channel = SocketChannel.open();
+			if (slow) {
+				channel.setOption(StandardSocketOptions.SO_RCVBUF, 1024);
+			}
+			channel.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()));
+			Watcher watcher = new Watcher(i % games + 1, slow, chatty, channel);
+			ByteBuffer watch = ByteBuffer.allocate(12);
+			watch.putShort((short) 10).put((byte) GameProtocol.WATCH).putInt(GameProtocol.MAGIC)
+					.put((byte) GameProtocol.VERSION).putInt(watcher.game).flip();
+			while (watch.hasRemaining()) {
+				channel.write(watch);
+			}
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ, watcher);
+			watchers.add(watcher);
+		}
+		long deadline = System.nanoTime() + timeoutSeconds * 1_000_000_000L;
+		while (synced < spectators && System.nanoTime() < deadline) {
+			poll(selector, 100);
+		}
+		long connected = System.nanoTime();
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long allocatedBefore = allocatedBytes(threads, serverThread);
+		// slow spectators stop reading until their game is over
+		List<Watcher> stalled = new ArrayList<>();
+		for (Watcher watcher : watchers) {
+			if (watcher.slow) {
+				watcher.channel.keyFor(selector).interestOps(0);
+				stalled.add(watcher);
+			}
+		}
+		go.countDown();
+
+		int open = spectators;
+		while (open > 0 && System.nanoTime() < deadline) {
+			stalled.removeIf(watcher -> {
+				if (finalMoves[watcher.game] == null) {
+					return false;
+				}
+				watcher.channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+				return true;
+			});
+			open -= poll(selector, 10);
+		}
+		long end = System.nanoTime();
+		boolean done = open == 0 && played.await(1, TimeUnit.SECONDS);
+		long allocated = allocatedBytes(threads, serverThread) - allocatedBefore;
+		boolean serving = serverThread.isAlive() && startsGame(server);
+		serverThread.interrupt();
+		for (Watcher watcher : watchers) {
+			if (watcher.moves != null && !watcher.moves.equals(finalMoves[watcher.game])) {
+				wrong++;
+			}
+		}
+
+		long moves = 0;
+		for (int game = 1; game <= games; game++) {
+			moves += finalMoves[game] == null ? 0 : finalMoves[game].length();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		System.out.printf("spectators %d (%d slow, %d chatty) watching %d games, %d ms per move%n", spectators,
+				watchers.stream().filter(w -> w.slow).count(), watchers.stream().filter(w -> w.chatty).count(), games,
+				moveMillis);
+		System.out.printf("connected in %.0f ms, played in %.0f ms%s%n", (connected - start) / 1e6,
+				(end - connected) / 1e6, done ? "" : " (timed out, " + open + " spectators still open)");
+		System.out.printf("moves %d, frames delivered %d, %.0f frames/sec%n", moves, frames,
+				frames / ((end - connected) / 1e9));
+		System.out.printf("spectators resynced %d, with the wrong board %d, frames sent by chatty ones %d%n",
+				resynced, wrong, chatter);
+		System.out.printf("move latency to spectators p50 %s p99 %s max %dus%n", percentile(0.5), percentile(0.99),
+				maxLatency);
+		System.out.printf("server allocated %s, peak platform threads %d, heap in use %d MB%n",
+				allocated < 0 ? "-"
+						: String.format("%d bytes, %.2f per frame delivered", allocated, (double) allocated / frames),
+				threads.getPeakThreadCount(), (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+		System.out.println(serving ? "server still running, new game started" : "server stopped serving games");
+		if (wrong > 0 || !done || slowPercent > 0 && resynced == 0 || !serving) {
+			System.out.println("FAILED");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return whether @param server pairs two new players and starts their game
+	 */
+	private static boolean startsGame(GameServer server) {
+		try (Socket first = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+				Socket second = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			first.setSoTimeout(5000);
+			second.setSoTimeout(5000);
+			Connection one = new Connection(first);
+			Connection other = new Connection(second);
+			one.handshake();
+			other.handshake();
+			return one.readStart() + other.readStart() == 3;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Plays random moves for one side of game @param number, one every @param
+	 * moveMillis once @param go opens, until the game is over. Asks to take back
+	 * @param takeBackPercent of its moves, and agrees to every take back the
+	 * opponent asks for.
+	 */
+	private static void play(Connection player, int seat, int number, int moveMillis, int takeBackPercent,
+			CountDownLatch go, CountDownLatch played) {
+		BitBoard board = new BitBoard();
+		player.start(null);
+		try {
+			go.await();
+			burst(player, seat, number);
+			while (board.getMoves() == 0 || !board.isLastMoveWin() && !board.isFull()) {
+				if ((board.getMoves() & 1) == seat - 1) {
+					Thread.sleep(moveMillis);
+					// the opponent may have asked to take their move back in the meantime
+					Connection.Message pending = player.poll();
+					if (pending != null) {
+						receive(player, board, pending);
+						continue;
+					}
+					int col;
+					do {
+						col = ThreadLocalRandom.current().nextInt(BitBoard.COLUMNS);
+					} while (!board.canPlay(col));
+					board.play(col);
+					sentAt[number].set(board.getMoves(), System.nanoTime());
+					player.sendMove(col);
+					if (!board.isLastMoveWin() && !board.isFull()
+							&& ThreadLocalRandom.current().nextInt(100) < takeBackPercent) {
+						player.sendTakeBack(board.getMoves());
+						// answered by the opponent agreeing, or by their move if it crossed the request
+						Connection.Message message = player.take();
+						if (message.type == GameProtocol.TAKEBACK && message.value == board.getMoves()) {
+							board.undo();
+						} else if (message.type == GameProtocol.MOVE) {
+							board.play(message.value);
+						}
+					}
+				} else {
+					receive(player, board, player.take());
+				}
+			}
+			if (seat == 1) {
+				finalMoves[number] = moves(board);
+			}
+			player.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		played.countDown();
+	}
+
+	/**
+	 * Plays the first move of game @param number and takes it back again, BURST
+	 * times with no pause between, with the first player moving and asking and
+	 * the second agreeing
+	 */
+	private static void burst(Connection player, int seat, int number) throws IOException {
+		for (int i = 0; i < BURST; i++) {
+			if (seat == 1) {
+				sentAt[number].set(1, System.nanoTime());
+				player.sendMove(i % BitBoard.COLUMNS);
+				player.sendTakeBack(1);
+				player.take();
+			} else {
+				player.take();
+				player.take();
+				player.sendTakeBack(1);
+			}
+		}
+	}
+
+	/**
+	 * Plays the opponent's move in @param message, or takes back their last move
+	 * and agrees to it
+	 */
+	private static void receive(Connection player, BitBoard board, Connection.Message message) throws IOException {
+		if (message.type == GameProtocol.MOVE) {
+			board.play(message.value);
+		} else if (message.type == GameProtocol.TAKEBACK && message.value == board.getMoves()) {
+			board.undo();
+			player.sendTakeBack(message.value);
+		} else if (message.type == Connection.Message.DISCONNECTED) {
+			throw new IOException("Server hung up before the game was over");
+		}
+	}
+
+	/**
+	 * Reads whatever has arrived for the spectators
+	 *
+	 * @return how many of them the server hung up on
+	 */
+	private static int poll(Selector selector, long timeoutMillis) throws IOException {
+		selector.select(timeoutMillis);
+		long now = System.nanoTime();
+		int closed = 0;
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while (keys.hasNext()) {
+			SelectionKey key = keys.next();
+			keys.remove();
+			Watcher watcher = (Watcher) key.attachment();
+			if (!key.isValid() || !key.isReadable()) {
+				continue;
+			}
+			int read;
+			try {
+				read = watcher.channel.read(watcher.in);
+			} catch (IOException e) {
+				read = -1;
+			}
+			ByteBuffer in = watcher.in;
+			in.flip();
+			while (in.remaining() >= 2 && in.remaining() >= 2 + (in.getShort(in.position()) & 0xFFFF)) {
+				int length = in.getShort() & 0xFFFF;
+				int next = in.position() + length;
+				handle(watcher, in.get(), in, now);
+				in.position(next);
+			}
+			in.compact();
+			if (read < 0) {
+				finish(watcher);
+				closed++;
+			} else if (watcher.chatty) {
+				chat(watcher);
+			}
+		}
+		return closed;
+	}
+
+	private static void handle(Watcher watcher, int type, ByteBuffer in, long now) {
+		if (type == GameProtocol.SYNC) {
+			watcher.board = new BitBoard();
+			int count = in.get();
+			for (int i = 0; i < count; i++) {
+				watcher.board.play(in.get());
+			}
+			if (++watcher.syncs == 1) {
+				synced++;
+			} else if (watcher.syncs == 2) {
+				resynced++;
+			}
+		} else if (type == GameProtocol.MOVE) {
+			watcher.board.play(in.get());
+			frames++;
+			if (!watcher.slow) {
+				long micros = Math.max(0, now - sentAt[watcher.game].get(watcher.board.getMoves())) / 1000;
+				latencies[Math.min(64 - Long.numberOfLeadingZeros(micros), latencies.length - 1)]++;
+				maxLatency = Math.max(maxLatency, micros);
+			}
+		} else if (type == GameProtocol.TAKEBACK) {
+			watcher.board.undo();
+			frames++;
+		} else if (type == GameProtocol.RESIGN) {
+			frames++;
+		}
+	}
+
+	/**
+	 * Sends the server a frame from chatty spectator @param watcher, once the last
+	 * one has gone
+	 */
+	private static void chat(Watcher watcher) {
+		try {
+			if (!watcher.out.hasRemaining()) {
+				watcher.out.rewind();
+				chatter++;
+			}
+			watcher.channel.write(watcher.out);
+		} catch (IOException e) {
+			// the server hung up, which the next read finds
+		}
+	}
+
+	/**
+	 * Keeps the board of a spectator the server has hung up on, to check once
+	 * every game has finished
+	 */
+	private static void finish(Watcher watcher) throws IOException {
+		watcher.channel.close();
+		watcher.moves = moves(watcher.board);
+	}
+
+	private static String moves(BitBoard board) {
+		StringBuilder moves = new StringBuilder();
+		for (int i = 0; i < board.getMoves(); i++) {
+			moves.append(board.getMove(i) + 1);
+		}
+		return moves.toString();
+	}
+
+	private static long allocatedBytes(ThreadMXBean threads, Thread thread) {
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread.threadId());
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the upper bound of the histogram bucket that holds the @param
+	 *         fraction percentile of latencies
+	 */
+	private static String percentile(double fraction) {
+		long total = 0;
+		for (long count : latencies) {
+			total += count;
+		}
+		long seen = 0;
+		for (int i = 0; i < latencies.length; i++) {
+			seen += latencies[i];
+			if (total > 0 && seen >= fraction * total) {
+				return "<" + (1L << i) + "us";
+			}
+		}
+		return "-";
+	}
+}
@@ -0,0 +1,127 @@
+import java.io.PrintStream;
+
+/**
+ * Computer player that searches as deep as it can within a time budget per
+ * move, using iterative deepening.
+ *
+ * The position is searched to depth 1, then 2, and so on, each search reusing
+ * the transposition table the shallower ones filled, so the best move found so
+ * far is tried first and the extra depths cost little. A new depth is only
+ * started while less than half the budget is used, since each one takes longer
+ * than all the ones before it. The search also has a hard deadline at the end
+ * of the budget: one still running then gives up, and the move from the last
+ * depth that finished is played. Searching stops early once a win or loss is
+ * proven or the search reaches the end of the game.
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class TimedSearchPlayer implements ComputerPlayer {
+	private final NegamaxPlayer search;
+	private final long budgetNanos;
+	private PrintStream log;
+	private int depthReached;
+	private int score;
+	private long nodes;
+	private long elapsedNanos;
+
+	/**
+	 * @param search       the searcher to run, whose own depth is ignored
+	 * @param budgetMillis how long to spend on each move
+	 */
+	public TimedSearchPlayer(NegamaxPlayer search, long budgetMillis) {
+		if (budgetMillis < 1) {
+			throw new IllegalArgumentException("Need at least 1 ms per move, got " + budgetMillis);
+		}
+		this.search = search;
+		this.budgetNanos = budgetMillis * 1_000_000L;
+	}
+
+	@Override
+	public int chooseMove(BitBoard board) {
+		long start = System.nanoTime();
+		search.setDeadline(start + budgetNanos);
+		int remaining = BitBoard.COLUMNS * BitBoard.ROWS - board.getMoves();
+		int best = -1;
+		depthReached = 0;
+		nodes = 0;
+		try {
+			for (int depth = 1; depth <= remaining; depth++) {
+				int move = search.chooseMove(board, depth);
+				nodes += search.getNodeCount();
+				if (search.wasAborted()) {
+					// even a cut off search plays something legal
+					if (best < 0) {
+						best = move;
+					}
+					break;
+				}
+				best = move;
+				depthReached = depth;
+				score = search.getScore();
+				// scores are only ever non-zero for a win or loss that has been proven
+				if (score != 0 || System.nanoTime() - start > budgetNanos / 2) {
+					break;
+				}
+			}
+		} finally {
+			search.setDeadline(Long.MAX_VALUE);
+		}
+		elapsedNanos = System.nanoTime() - start;
+		if (log != null) {
+			log.printf("move %d: column %d, depth %d of %d, score %d, %d nodes, %d ms of %d ms%n",
+					board.getMoves() + 1, best + 1, depthReached, remaining, score, nodes,
+					elapsedNanos / 1_000_000, budgetNanos / 1_000_000);
+		}
+		return best;
+	}
+
+	/**
+	 * Prints the depth reached and time used for every move to @param log, or to
+	 * nowhere if it is null
+	 */
+	public void setLog(PrintStream log) {
+		this.log = log;
+	}
+
+	/**
+	 * @return the deepest search that finished for the last move, or 0 if even
+	 *         depth 1 ran out of time
+	 */
+	public int getDepthReached() {
+		return depthReached;
+	}
+
+	/**
+	 * @return the score of the last move from the deepest search that finished
+	 */
+	public int getScore() {
+		return score;
+	}
+
+	/**
+	 * @return the number of positions visited over every depth of the last move
+	 */
+	public long getNodeCount() {
+		return nodes;
+	}
+
+	/**
+	 * @return how long the last move took, in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return the searcher this player runs
+	 */
+	public NegamaxPlayer getSearch() {
+		return search;
+	}
+
+	@Override
+	public void close() {
+		search.close();
+	}
+}
@@ -0,0 +1,209 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless batch runner that plays computer players against each other.
+ *
+ * Games are played straight on a BitBoard, with no Model, observers or GUI, and
+ * spread over a pool of threads, each with its own pair of players. The two
+ * players take turns going first. Every game can start with a few random moves
+ * so that deterministic players do not play the same game over and over.
+ *
+ * Prints a win/draw/loss table for the first player, the move latency
+ * percentiles of both players and the number of games finished per second.
+ *
+ * Usage: java Tournament playerA playerB [games] [threads] [randomMoves] [seed]
+ *
+ * Players are described as in ComputerPlayer.fromSpec, e.g. "negamax:10:16".
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class Tournament {
+	private static final int CELLS = BitBoard.COLUMNS * BitBoard.ROWS;
+
+	private final String[] specs;
+	private final int randomMoves;
+	private final long seed;
+	private final ThreadLocal<ComputerPlayer[]> players;
+	// every player handed out to a thread, so they can all be closed
+	private final List<ComputerPlayer> created = new ArrayList<>();
+
+	/**
+	 * @param specA       the description of the first player
+	 * @param specB       the description of the second player
+	 * @param randomMoves how many random moves each game starts with
+	 * @param seed        the seed for the random moves
+	 */
+	public Tournament(String specA, String specB, int randomMoves, long seed) {
+		this.specs = new String[] { specA, specB };
+		this.randomMoves = randomMoves;
+		this.seed = seed;
+		// players keep search state, so every thread gets its own
+		this.players = ThreadLocal.withInitial(() -> {
+			ComputerPlayer[] pair = { ComputerPlayer.fromSpec(specs[0]), ComputerPlayer.fromSpec(specs[1]) };
+			synchronized (created) {
+				created.add(pair[0]);
+				created.add(pair[1]);
+			}
+			return pair;
+		});
+		// fail fast on a bad description rather than on the first game
+		ComputerPlayer.fromSpec(specA).close();
+		ComputerPlayer.fromSpec(specB).close();
+	}
+
+	/**
+	 * Closes the players of every thread that played a game. The tournament
+	 * cannot be used afterwards.
+	 */
+	public void close() {
+		synchronized (created) {
+			for (ComputerPlayer player : created) {
+				player.close();
+			}
+			created.clear();
+		}
+	}
+
+	/**
+	 * The outcome of one game, and how long each player took over its moves
+	 */
+	public static class GameResult {
+		// 0 if player A won, 1 if player B won, -1 for a draw
+		final int winner;
+		final boolean aFirst;
+		final long[][] latencies;
+
+		GameResult(int winner, boolean aFirst, long[][] latencies) {
+			this.winner = winner;
+			this.aFirst = aFirst;
+			this.latencies = latencies;
+		}
+	}
+
+	/**
+	 * Plays game number @param game on the calling thread
+	 *
+	 * @return the result of the game
+	 */
+	public GameResult play(int game) {
+		ComputerPlayer[] pair = players.get();
+		boolean aFirst = game % 2 == 0;
+		BitBoard board = new BitBoard();
+		Random rand = new Random(seed + game);
+		long[][] latencies = new long[2][(CELLS + 1) / 2];
+		int[] moves = new int[2];
+
+		while (board.getMoves() < randomMoves && playRandom(board, rand)) {
+			// each call plays one move
+		}
+
+		while (!board.isFull()) {
+			// player A moves when the number of discs matches who went first
+			int player = (board.getMoves() % 2 == 0) == aFirst ? 0 : 1;
+			long start = System.nanoTime();
+			int col = pair[player].chooseMove(new BitBoard(board));
+			latencies[player][moves[player]++] = System.nanoTime() - start;
+			board.play(col);
+			if (board.isLastMoveWin()) {
+				return new GameResult(player, aFirst, trim(latencies, moves));
+			}
+		}
+		return new GameResult(-1, aFirst, trim(latencies, moves));
+	}
+
+	/**
+	 * Plays a random move on @param board that does not end the game
+	 *
+	 * @return false if there was no such move
+	 */
+	private static boolean playRandom(BitBoard board, Random rand) {
+		int first = rand.nextInt(BitBoard.COLUMNS);
+		for (int i = 0; i < BitBoard.COLUMNS; i++) {
+			int col = (first + i) % BitBoard.COLUMNS;
+			if (board.canPlay(col) && !board.isWinningMove(col)) {
+				board.play(col);
+				return !board.isFull();
+			}
+		}
+		return false;
+	}
+
+	private static long[][] trim(long[][] latencies, int[] moves) {
+		return new long[][] { Arrays.copyOf(latencies[0], moves[0]), Arrays.copyOf(latencies[1], moves[1]) };
+	}
+
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+		if (args.length < 2) {
+			System.err.println("Usage: java Tournament playerA playerB [games] [threads] [randomMoves] [seed]");
+			System.exit(1);
+		}
+		int games = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		int randomMoves = args.length > 4 ? Integer.parseInt(args[4]) : 2;
+		long seed = args.length > 5 ? Long.parseLong(args[5]) : System.nanoTime();
+		Tournament tournament = new Tournament(args[0], args[1], randomMoves, seed);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		List<Future<GameResult>> running = new ArrayList<>();
+		for (int i = 0; i < games; i++) {
+			int game = i;
+			running.add(pool.submit(() -> tournament.play(game)));
+		}
+
+		// [first or second][win, draw, loss] for player A
+		int[][] table = new int[2][3];
+		long[][] latencies = new long[2][games * ((CELLS + 1) / 2)];
+		int[] counts = new int[2];
+		for (Future<GameResult> future : running) {
+			GameResult result = future.get();
+			int outcome = result.winner == 0 ? 0 : result.winner == 1 ? 2 : 1;
+			table[result.aFirst ? 0 : 1][outcome]++;
+			for (int p = 0; p < 2; p++) {
+				System.arraycopy(result.latencies[p], 0, latencies[p], counts[p], result.latencies[p].length);
+				counts[p] += result.latencies[p].length;
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		pool.shutdown();
+		tournament.close();
+
+		System.out.println("A = " + args[0] + ", B = " + args[1] + ", seed " + seed);
+		System.out.println();
+		System.out.println("A moved\twin\tdraw\tloss");
+		System.out.println("first\t" + table[0][0] + "\t" + table[0][1] + "\t" + table[0][2]);
+		System.out.println("second\t" + table[1][0] + "\t" + table[1][1] + "\t" + table[1][2]);
+		System.out.println("total\t" + (table[0][0] + table[1][0]) + "\t" + (table[0][1] + table[1][1]) + "\t"
+				+ (table[0][2] + table[1][2]));
+		System.out.println();
+		System.out.println("move latency (us)\tp50\tp90\tp99\tmax");
+		for (int p = 0; p < 2; p++) {
+			long[] all = Arrays.copyOf(latencies[p], counts[p]);
+			Arrays.sort(all);
+			System.out.println((p == 0 ? "A" : "B") + "\t\t\t" + percentile(all, 50) + "\t" + percentile(all, 90)
+					+ "\t" + percentile(all, 99) + "\t" + percentile(all, 100));
+		}
+		System.out.println();
+		System.out.printf("%d games in %.2f s, %.1f games/sec%n", games, elapsed / 1e9, games * 1e9 / elapsed);
+	}
+
+	/**
+	 * @return the @param p th percentile of the sorted latencies in @param sorted,
+	 *         in microseconds
+	 */
+	private static long percentile(long[] sorted, int p) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, index)] / 1000;
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ * Fixed-size cache of search results, so a position reached through a different
+ * order of moves does not have to be searched again.
+ *
+ * Positions are identified by BitBoard.getKey(), which is unique for every
+ * position. The table lives in two primitive arrays sized once from a memory cap
+ * and never grows. Entries are grouped in buckets of two: the first slot keeps
+ * whichever result was searched deepest, and the second always takes the newest
+ * result that did not fit in the first.
+ *
+ * Each entry packs its score, bound type, best move and search depth into a
+ * single long. The stored key is xor'ed with that long, so an entry whose two
+ * halves do not belong together never matches a probe. That makes it safe for
+ * several search threads to share one table without locking: an entry torn by
+ * two threads writing at once just looks like a miss. The hit and miss counters
+ * are not synchronized, so they are approximate while a table is shared.
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class TranspositionTable {
+	public static final int DEFAULT_MEGABYTES = 64;
+
+	// the kinds of score an entry can hold
+	public static final int LOWER = 1;
+	public static final int UPPER = 2;
+	public static final int EXACT = 3;
+
+	private static final int BYTES_PER_SLOT = 2 * Long.BYTES;
+
+	private final long[] keys;
+	private final long[] data;
+	private final int bucketMask;
+
+	private long hits;
+	private long misses;
+	private long collisions;
+
+	/**
+	 * @param megabytes the most memory the table may use
+	 * @throws IllegalArgumentException if the cap is too small to hold one bucket
+	 */
+	public TranspositionTable(int megabytes) {
+		long slots = Long.highestOneBit((long) megabytes * 1024 * 1024 / BYTES_PER_SLOT);
+		if (slots < 2) {
+			throw new IllegalArgumentException("Transposition table needs at least 1 MB, got " + megabytes);
+		}
+		// arrays are indexed by int
+		slots = Math.min(slots, 1 << 30);
+		keys = new long[(int) slots];
+		data = new long[(int) slots];
+		bucketMask = (int) (slots / 2 - 1);
+	}
+
+	/**
+	 * Looks up @param key
+	 *
+	 * @return the packed entry for the position, or 0 if it is not in the table
+	 */
+	public long probe(long key) {
+		int slot = bucket(key);
+		for (int i = slot; i < slot + 2; i++) {
+			long entry = data[i];
+			if (entry != 0 && (keys[i] ^ entry) == key) {
+				hits++;
+				return entry;
+			}
+		}
+		misses++;
+		if (data[slot] != 0 || data[slot + 1] != 0) {
+			collisions++;
+		}
+		return 0;
+	}
+
+	/**
+	 * Stores a search result for @param key
+	 *
+	 * @param depth how many moves deep the position was searched
+	 * @param score the score the search found
+	 * @param bound LOWER, UPPER or EXACT
+	 * @param move  the best column found, or -1 if there was none
+	 */
+	public void store(long key, int depth, int score, int bound, int move) {
+		long entry = (score + 128) | (long) bound << 8 | (long) (move + 1) << 10 | (long) depth << 14;
+		int slot = bucket(key);
+		long preferred = data[slot];
+		if (preferred != 0 && (keys[slot] ^ preferred) != key && depth(preferred) > depth) {
+			slot++;
+		}
+		keys[slot] = key ^ entry;
+		data[slot] = entry;
+	}
+
+	/**
+	 * Empties the table and resets its counters
+	 */
+	public void clear() {
+		java.util.Arrays.fill(keys, 0);
+		java.util.Arrays.fill(data, 0);
+		hits = 0;
+		misses = 0;
+		collisions = 0;
+	}
+
+	private int bucket(long key) {
+		// spread the key bits with a multiplicative hash before masking
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32 & bucketMask) * 2;
+	}
+
+	/**
+	 * @return the score stored in @param entry
+	 */
+	public static int score(long entry) {
+		return (int) (entry & 0xFF) - 128;
+	}
+
+	/**
+	 * @return the bound type stored in @param entry
+	 */
+	public static int bound(long entry) {
+		return (int) (entry >>> 8 & 0x3);
+	}
+
+	/**
+	 * @return the best move stored in @param entry, or -1 if there was none
+	 */
+	public static int move(long entry) {
+		return (int) (entry >>> 10 & 0xF) - 1;
+	}
+
+	/**
+	 * @return the depth stored in @param entry
+	 */
+	public static int depth(long entry) {
+		return (int) (entry >>> 14 & 0xFF);
+	}
+
+	/**
+	 * @return the number of entries the table can hold
+	 */
+	public int getCapacity() {
+		return data.length;
+	}
+
+	/**
+	 * @return the number of probes that found their position
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of probes that did not find their position
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of misses where the bucket was holding other positions
+	 */
+	public long getCollisions() {
+		return collisions;
+	}
+}
@@ -0,0 +1,138 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.stage.Stage;
+
+/**
+ * Measures how well Connect4View keeps up with a game replayed far faster than
+ * anyone plays it, with the drop animations running.
+ *
+ * Replays a drawn 42-move game to the view, a number of moves every frame, then
+ * takes every move back again the same way, for a number of rounds. Times how
+ * long the view takes to handle each move and how long each frame takes, and
+ * prints percentiles of both before exiting. A frame that takes more than one
+ * and a half times the 60 Hz frame time counts as dropped.
+ *
+ * The moves come from a model the view's controller knows nothing about, so
+ * the filled board does not end the game on screen.
+ *
+ * Usage: java ViewBenchmark [rounds] [movesPerFrame]
+ *
+ * @author Yosef Jacobson
+ *
+ */
+public class ViewBenchmark extends Application {
+	private static final long FRAME_NANOS = 1_000_000_000L / 60;
+
+	@Override
+	public void start(Stage stage) {
+		List<String> args = getParameters().getRaw();
+		int rounds = args.size() > 0 ? Integer.parseInt(args.get(0)) : 20;
+		int movesPerFrame = args.size() > 1 ? Integer.parseInt(args.get(1)) : 1;
+
+		Connect4View view = new Connect4View();
+		view.initialize(stage);
+		Model replay = new Model();
+		replay.addObserver(view);
+		int[] game = drawnGame(new Random(1));
+
+		int updates = rounds * game.length * 2;
+		long[] updateNanos = new long[updates];
+		long[] frameNanos = new long[updates / movesPerFrame + 2];
+		new AnimationTimer() {
+			private boolean forward = true;
+			private int round;
+			private int updated;
+			private int frames;
+			private long last;
+
+			@Override
+			public void handle(long now) {
+				if (last != 0) {
+					frameNanos[frames++] = now - last;
+				}
+				last = now;
+				for (int i = 0; i < movesPerFrame && updated < updates; i++) {
+					long start = System.nanoTime();
+					if (forward) {
+						replay.update(game[replay.getMoveCount()]);
+					} else {
+						replay.takeBack();
+					}
+					updateNanos[updated++] = System.nanoTime() - start;
+					if (replay.getMoveCount() == game.length) {
+						forward = false;
+					} else if (replay.getMoveCount() == 0) {
+						forward = true;
+						round++;
+					}
+				}
+				if (round == rounds) {
+					stop();
+					report(Arrays.copyOf(updateNanos, updated), Arrays.copyOf(frameNanos, frames));
+					Platform.exit();
+				}
+			}
+		}.start();
+	}
+
+	private static void report(long[] updateNanos, long[] frameNanos) {
+		Arrays.sort(updateNanos);
+		Arrays.sort(frameNanos);
+		long dropped = Arrays.stream(frameNanos).filter(nanos -> nanos > FRAME_NANOS * 3 / 2).count();
+		System.out.printf("%d moves drawn: %.1f us median, %.1f us p99, %.1f us max%n", updateNanos.length,
+				percentile(updateNanos, 50) / 1e3, percentile(updateNanos, 99) / 1e3,
+				updateNanos[updateNanos.length - 1] / 1e3);
+		System.out.printf("%d frames: %.1f ms median, %.1f ms p99, %.1f ms max, %d dropped%n", frameNanos.length,
+				percentile(frameNanos, 50) / 1e6, percentile(frameNanos, 99) / 1e6,
+				frameNanos.length == 0 ? 0 : frameNanos[frameNanos.length - 1] / 1e6, dropped);
+	}
+
+	/**
+	 * @return the @param percent percentile of the sorted @param values
+	 */
+	private static long percentile(long[] values, int percent) {
+		return values.length == 0 ? 0 : values[(int) ((values.length - 1) * (long) percent / 100)];
+	}
+
+	/**
+	 * @return the moves of a game that fills the board without either player
+	 *         connecting four, played at random by both sides: neither ever wins
+	 *         when they could, and both avoid handing the other a win where they
+	 *         can. Games that get stuck anyway are started again.
+	 */
+	static int[] drawnGame(Random random) {
+		int[] moves = new int[BitBoard.COLUMNS * BitBoard.ROWS];
+		int[] choices = new int[BitBoard.COLUMNS];
+		while (true) {
+			BitBoard board = new BitBoard();
+			while (!board.isFull()) {
+				long safe = board.nonLosingMoves();
+				int count = 0;
+				for (int col = 0; col < BitBoard.COLUMNS; col++) {
+					if (board.canPlay(col) && !board.isWinningMove(col)
+							&& (safe == 0 || (safe & BitBoard.columnMask(col)) != 0)) {
+						choices[count++] = col;
+					}
+				}
+				if (count == 0) {
+					break;
+				}
+				int col = choices[random.nextInt(count)];
+				moves[board.getMoves()] = col;
+				board.play(col);
+			}
+			if (board.isFull()) {
+				return moves;
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		Application.launch(ViewBenchmark.class, args);
+	}
+}